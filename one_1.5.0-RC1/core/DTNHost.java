@@ -6,12 +6,14 @@ package core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import movement.MovementModel;
 import movement.Path;
 import routing.MessageRouter;
 import routing.util.RoutingInfo;
+import util.Tuple;
 
 /**
  * A DTN capable host.
@@ -30,11 +32,20 @@ public class DTNHost implements Comparable<DTNHost> {
 	private Path path;
 	private double speed;
 	private double nextTimeToMove;
+	/** how many times the path of this host has changed (a new waypoint 
+	 * has been set or the path has ended) */
+	private int pathChanges;
 	private String name;
 	private List<MessageListener> msgListeners;
 	private List<MovementListener> movListeners;
 	private List<NetworkInterface> net;
 	private ModuleCommunicationBus comBus;
+	/** cached (unmodifiable) list of the connections of all interfaces 
+	 * or null if the connections have changed */
+	private List<Connection> connectionsView;
+	/** movement listener notifications (destination, speed) postponed
+	 * while moving in parallel, or null if notifications aren't postponed */
+	private List<Tuple<Coord, Double>> deferredMovementEvents;
 
 	static {
 		DTNSim.registerForReset(DTNHost.class.getCanonicalName());
@@ -162,25 +173,39 @@ public class DTNHost implements Comparable<DTNHost> {
 	 * @param con  The connection object whose state changed
 	 */
 	public void connectionUp(Connection con) {
+		this.connectionsView = null;
 		this.router.changedConnection(con);
 	}
 
 	public void connectionDown(Connection con) {
+		this.connectionsView = null;
 		this.router.changedConnection(con);
 	}
 
 	/**
-	 * Returns a copy of the list of connections this host has with other hosts
-	 * @return a copy of the list of connections this host has with other hosts
+	 * Returns an unmodifiable list of the connections this host has with 
+	 * other hosts. The same list is returned until the connections change
+	 * (and the returned list doesn't change after that either). 
+	 * @return a list of connections this host has with other hosts
 	 */
 	public List<Connection> getConnections() {
-		List<Connection> lc = new ArrayList<Connection>();
-
-		for (NetworkInterface i : net) {
-			lc.addAll(i.getConnections());
+		int nrofConnections = 0;
+		for (int i=0, n = net.size(); i < n; i++) {
+			nrofConnections += net.get(i).getConnections().size();
+		}
+		
+		/* the interface removes a connection from its list only after
+		   informing the host, so the number of connections is checked too */
+		if (this.connectionsView == null || 
+				nrofConnections != this.connectionsView.size()) {
+			List<Connection> lc = new ArrayList<Connection>(nrofConnections);
+			for (int i=0, n = net.size(); i < n; i++) {
+				lc.addAll(net.get(i).getConnections());
+			}
+			this.connectionsView = Collections.unmodifiableList(lc);
 		}
 
-		return lc;
+		return this.connectionsView;
 	}
 
 	/**
@@ -191,6 +216,14 @@ public class DTNHost implements Comparable<DTNHost> {
 		return this.location;
 	}
 
+	/**
+	 * Returns the movement model of this host
+	 * @return the movement model of this host
+	 */
+	public MovementModel getMovement() {
+		return this.movement;
+	}
+
 	/**
 	 * Returns the Path this node is currently traveling or null if no
 	 * path is in use at the moment.
@@ -253,6 +286,14 @@ public class DTNHost implements Comparable<DTNHost> {
 		return this.router.getRoutingInfo();
 	}
 
+	/**
+	 * Returns the message listener list of this host
+	 * @return The list (shared with the router)
+	 */
+	List<MessageListener> getMessageListeners() {
+		return this.msgListeners;
+	}
+
 	/**
 	 * Returns the interface objects of the node
 	 */
@@ -405,6 +446,70 @@ public class DTNHost implements Comparable<DTNHost> {
 		this.location.translate(dx, dy);
 	}	
 
+	/**
+	 * Returns how many times the path of this host has changed, i.e., how 
+	 * many times the host has reached a waypoint. If this hasn't changed, 
+	 * the host still moves (or waits) as it did when the value was read.
+	 * @return The number of path changes
+	 */
+	int getPathChanges() {
+		return this.pathChanges;
+	}
+	
+	/**
+	 * Returns how long (from the current simulation time) the host moves 
+	 * along a straight line with the velocity returned by 
+	 * {@link #getVelocityX()} and {@link #getVelocityY()} (or stays still
+	 * if the velocity is zero).
+	 * @return Time (seconds) until the movement of the host changes or 0
+	 * if it can't be predicted
+	 */
+	double getStraightMovementTime() {
+		if (!isMovementActive()) {
+			return Double.MAX_VALUE;
+		}
+		if (SimClock.getTime() < this.nextTimeToMove) {
+			return this.nextTimeToMove - SimClock.getTime(); /* waiting */
+		}
+		if (!isMovingStraight()) {
+			return 0;
+		}
+		return this.location.distance(this.destination) / this.speed;
+	}
+	
+	/**
+	 * Returns the X component of the current velocity of the host
+	 * @return The X component of the velocity (m/s)
+	 */
+	double getVelocityX() {
+		if (!isMovingStraight()) {
+			return 0;
+		}
+		return this.speed * (this.destination.getX() - this.location.getX()) /
+			this.location.distance(this.destination);
+	}
+	
+	/**
+	 * Returns the Y component of the current velocity of the host
+	 * @return The Y component of the velocity (m/s)
+	 */
+	double getVelocityY() {
+		if (!isMovingStraight()) {
+			return 0;
+		}
+		return this.speed * (this.destination.getY() - this.location.getY()) /
+			this.location.distance(this.destination);
+	}
+	
+	/**
+	 * Returns true if the host is currently moving towards its destination
+	 */
+	private boolean isMovingStraight() {
+		return isMovementActive() && this.destination != null && 
+			SimClock.getTime() >= this.nextTimeToMove && this.speed > 0 && 
+			!this.location.equals(this.destination);
+	}
+
 	/**
 	 * Sets the next destination and speed to correspond the next waypoint
 	 * on the path.
@@ -412,6 +517,7 @@ public class DTNHost implements Comparable<DTNHost> {
 	 * should wait
 	 */
 	private boolean setNextWaypoint() {
+		this.pathChanges++;
 		if (path == null) {
 			path = movement.getPath();
 		}
@@ -425,13 +531,60 @@ public class DTNHost implements Comparable<DTNHost> {
 		this.destination = path.getNextWaypoint();
 		this.speed = path.getSpeed();
 
+		if (this.deferredMovementEvents != null) {
+			this.deferredMovementEvents.add(new Tuple<Coord, Double>(
+					this.destination, this.speed));
+		}
+		else {
+			notifyNewDestination(this.destination, this.speed);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Informs movement listeners about a new destination of this host
+	 * @param dest The new destination
+	 * @param speed The speed towards the destination
+	 */
+	private void notifyNewDestination(Coord dest, double speed) {
 		if (this.movListeners != null) {
 			for (MovementListener l : this.movListeners) {
-				l.newDestination(this, this.destination, this.speed);
+				l.newDestination(this, dest, speed);
 			}
 		}
+	}
 
-		return true;
+	/**
+	 * Sets whether movement listener notifications should be postponed 
+	 * until {@link #flushMovementEvents()} is called. Postponing is needed
+	 * when hosts are moved in parallel since the listeners are not
+	 * thread safe.
+	 * @param defer If true, notifications are postponed
+	 */
+	void setMovementEventsDeferred(boolean defer) {
+		if (!defer) {
+			flushMovementEvents();
+			this.deferredMovementEvents = null;
+		}
+		else if (this.deferredMovementEvents == null && 
+				this.movListeners != null) {
+			this.deferredMovementEvents = new ArrayList<Tuple<Coord, Double>>();
+		}
+	}
+
+	/**
+	 * Informs movement listeners about all the postponed notifications 
+	 * (in the order they happened).
+	 */
+	void flushMovementEvents() {
+		if (this.deferredMovementEvents == null) {
+			return;
+		}
+		for (Tuple<Coord, Double> t : this.deferredMovementEvents) {
+			notifyNewDestination(t.getKey(), t.getValue());
+		}
+		this.deferredMovementEvents.clear();
 	}
 
 	/**
@@ -0,0 +1,209 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message and connection listener that stands in for the listeners of a
+ * listener list while the routers are updated in parallel (see
+ * {@link World#ROUTER_THREADS_S}). The events are recorded to the event
+ * log of the host update that the current thread is running and passed to
+ * the real listeners when the log is replayed. If the current thread has
+ * no event log, the events are passed to the real listeners right away.
+ */
+class ListenerEventRecorder implements MessageListener, ConnectionListener {
+	private static final int NEW_MESSAGE = 0;
+	private static final int TRANSFER_STARTED = 1;
+	private static final int DELETED = 2;
+	private static final int TRANSFER_ABORTED = 3;
+	private static final int TRANSFERRED = 4;
+	private static final int CONNECTED = 5;
+	private static final int DISCONNECTED = 6;
+
+	/** the event log of the host update the thread is running (if any) */
+	private static final ThreadLocal<EventLog> currentLog =
+		new ThreadLocal<EventLog>();
+
+	/** the list whose listeners this recorder stands in for */
+	private List<Object> list;
+	/** the real listeners (while installed) */
+	private List<Object> listeners;
+
+	/**
+	 * Creates a recorder for a listener list
+	 * @param list The message or connection listener list
+	 */
+	@SuppressWarnings("unchecked")
+	ListenerEventRecorder(List<?> list) {
+		this.list = (List<Object>)list;
+		this.listeners = new ArrayList<Object>();
+	}
+
+	/**
+	 * Replaces the listeners of the list with this recorder
+	 */
+	void install() {
+		this.listeners.clear();
+		this.listeners.addAll(this.list);
+		this.list.clear();
+		this.list.add(this);
+	}
+
+	/**
+	 * Restores the real listeners to the list
+	 */
+	void uninstall() {
+		this.list.clear();
+		this.list.addAll(this.listeners);
+		this.listeners.clear();
+	}
+
+	/**
+	 * Sets the event log where the events reported by the current thread
+	 * are recorded
+	 * @param log The log or null if the events should be passed to the
+	 * listeners right away
+	 */
+	static void setCurrentLog(EventLog log) {
+		currentLog.set(log);
+	}
+
+	/**
+	 * Records an event or passes it to the listeners if the current thread
+	 * has no log
+	 */
+	private void event(int type, Message m, DTNHost h1, DTNHost h2,
+			boolean flag) {
+		EventLog log = currentLog.get();
+		if (log != null) {
+			log.add(this, type, m, h1, h2, flag);
+		}
+		else {
+			dispatch(type, m, h1, h2, flag);
+		}
+	}
+
+	/**
+	 * Passes an event to the real listeners
+	 */
+	private void dispatch(int type, Message m, DTNHost h1, DTNHost h2,
+			boolean flag) {
+		for (int i=0, n = this.listeners.size(); i < n; i++) {
+			Object l = this.listeners.get(i);
+			switch (type) {
+			case NEW_MESSAGE:
+				((MessageListener)l).newMessage(m);
+				break;
+			case TRANSFER_STARTED:
+				((MessageListener)l).messageTransferStarted(m, h1, h2);
+				break;
+			case DELETED:
+				((MessageListener)l).messageDeleted(m, h1, flag);
+				break;
+			case TRANSFER_ABORTED:
+				((MessageListener)l).messageTransferAborted(m, h1, h2);
+				break;
+			case TRANSFERRED:
+				((MessageListener)l).messageTransferred(m, h1, h2, flag);
+				break;
+			case CONNECTED:
+				((ConnectionListener)l).hostsConnected(h1, h2);
+				break;
+			case DISCONNECTED:
+				((ConnectionListener)l).hostsDisconnected(h1, h2);
+				break;
+			default:
+				assert false : "Unknown event type " + type;
+			}
+		}
+	}
+
+	public void newMessage(Message m) {
+		event(NEW_MESSAGE, m, null, null, false);
+	}
+
+	public void messageTransferStarted(Message m, DTNHost from, DTNHost to) {
+		event(TRANSFER_STARTED, m, from, to, false);
+	}
+
+	public void messageDeleted(Message m, DTNHost where, boolean dropped) {
+		event(DELETED, m, where, null, dropped);
+	}
+
+	public void messageTransferAborted(Message m, DTNHost from, DTNHost to) {
+		event(TRANSFER_ABORTED, m, from, to, false);
+	}
+
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean firstDelivery) {
+		event(TRANSFERRED, m, from, to, firstDelivery);
+	}
+
+	public void hostsConnected(DTNHost host1, DTNHost host2) {
+		event(CONNECTED, null, host1, host2, false);
+	}
+
+	public void hostsDisconnected(DTNHost host1, DTNHost host2) {
+		event(DISCONNECTED, null, host1, host2, false);
+	}
+
+	/**
+	 * Listener events recorded during one host update. The event objects
+	 * are reused between the updates.
+	 */
+	static class EventLog {
+		private ArrayList<Event> events = new ArrayList<Event>();
+		/** number of events recorded in the log */
+		private int size;
+
+		private void add(ListenerEventRecorder recorder, int type,
+				Message m, DTNHost h1, DTNHost h2, boolean flag) {
+			Event e;
+			if (this.size < this.events.size()) {
+				e = this.events.get(this.size);
+			}
+			else {
+				e = new Event();
+				this.events.add(e);
+			}
+			e.recorder = recorder;
+			e.type = type;
+			e.m = m;
+			e.h1 = h1;
+			e.h2 = h2;
+			e.flag = flag;
+			this.size++;
+		}
+
+		/**
+		 * Passes the recorded events to the real listeners in the order
+		 * they were recorded and clears the log
+		 */
+		void replay() {
+			for (int i=0; i < this.size; i++) {
+				Event e = this.events.get(i);
+				e.recorder.dispatch(e.type, e.m, e.h1, e.h2, e.flag);
+				e.recorder = null;
+				e.m = null;
+				e.h1 = e.h2 = null;
+			}
+			this.size = 0;
+		}
+	}
+
+	/**
+	 * A recorded listener event
+	 */
+	private static class Event {
+		private ListenerEventRecorder recorder;
+		private int type;
+		private Message m;
+		private DTNHost h1;
+		private DTNHost h2;
+		private boolean flag;
+	}
+}
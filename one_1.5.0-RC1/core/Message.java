@@ -4,11 +4,12 @@
  */
 package core;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A message that is created at a node or passed between nodes.
@@ -16,38 +17,50 @@ import java.util.Set;
 public class Message implements Comparable<Message> {
 	/** Value for infinite TTL of message */
 	public static final int INFINITE_TTL = -1;
-	private DTNHost from;
-	private DTNHost to;
-	/** Identifier of the message */
-	private String id;
-	/** Size of the message (bytes) */
-	private int size;
-	/** List of nodes this message has passed */
-	private List<DTNHost> path; 
-	/** Next unique identifier to be given */
-	private static int nextUniqueId;
+	/** The data that is the same for all replicates of the message */
+	private Body body;
+	/** True if the body is shared with other replicates (and must be 
+	 * copied before modifying it) */
+	private boolean bodyShared;
+	/** The last node this message has passed (the nodes are shared with 
+	 * the replicates of the message) */
+	private PathNode path;
+	/** List of nodes this message has passed (created when requested) */
+	private List<DTNHost> hops;
+	/** Next unique identifier to be given (messages can be created in
+	 * parallel router updates) */
+	private static AtomicInteger nextUniqueId;
 	/** Unique ID of this message */
 	private int uniqueId;
+	/** Integer identifiers given to the message IDs so far. The entries
+	 * are kept until the next reset (i.e., the end of the run) since the
+	 * routers remember delivered and blacklisted messages by the integer
+	 * identifiers, so the map has one entry per message ID created in the
+	 * run. */
+	private static HashMap<String, Integer> intIds;
 	/** The time this message was received */
 	private double timeReceived;
-	/** The time when this message was created */
-	private double timeCreated;
-	/** Initial TTL of the message */
-	private int initTtl;
-	
-	/** if a response to this message is required, this is the size of the 
-	 * response message (or 0 if no response is requested) */
-	private int responseSize;
-	/** if this message is a response message, this is set to the request msg*/
-	private Message requestMsg;
+	/** Running number of this message in the buffer it was added to 
+	 * (given by the router) */
+	private int bufferSeqNo;
 	
 	/** Container for generic message properties. Note that all values
 	 * stored in the properties should be immutable because only a shallow
 	 * copy of the properties is made when replicating messages */
 	private Map<String, Object> properties;
-	
-	/** Application ID of the application that created the message */
-	private String	appID;
+	/** True if the properties container is shared with other replicates
+	 * (and must be copied before modifying it) */
+	private boolean propertiesShared;
+	/** Values of the integer properties (indexed by the property slots) */
+	private int[] intProperties;
+	/** True if the integer property values are shared with other 
+	 * replicates (and must be copied before modifying them) */
+	private boolean intPropertiesShared;
+	/** Bit mask of the integer property slots that have a value */
+	private long intPropertiesSet;
+	/** Slots of the integer properties registered so far (by key) */
+	private static HashMap<String, Integer> intPropertySlots =
+		new HashMap<String, Integer>();
 	
 	static {
 		reset();
@@ -63,31 +76,40 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the message (in bytes)
 	 */
 	public Message(DTNHost from, DTNHost to, String id, int size) {
-		this.from = from;
-		this.to = to;
-		this.id = id;
-		this.size = size;
-		this.path = new ArrayList<DTNHost>();
-		this.uniqueId = nextUniqueId;
-		
-		this.timeCreated = SimClock.getTime();
-		this.timeReceived = this.timeCreated;
-		this.initTtl = INFINITE_TTL;
-		this.responseSize = 0;
-		this.requestMsg = null;
-		this.properties = null;
-		this.appID = null;
-		
-		Message.nextUniqueId++;
+		this(new Body(from, to, id, internId(id), size));
 		addNodeOnPath(from);
 	}
 	
+	/**
+	 * Creates a new Message with the given body and an empty path.
+	 */
+	private Message(Body body) {
+		this.body = body;
+		this.path = null;
+		this.uniqueId = nextUniqueId.getAndIncrement();
+		this.timeReceived = SimClock.getTime();
+		this.properties = null;
+	}
+	
+	/**
+	 * Returns the body of this message for modifying it. If the body is
+	 * shared with other replicates, the body is copied first.
+	 * @return The body that only this message uses
+	 */
+	private Body writableBody() {
+		if (this.bodyShared) {
+			this.body = this.body.copy();
+			this.bodyShared = false;
+		}
+		return this.body;
+	}
+	
 	/**
 	 * Returns the node this message is originally from
 	 * @return the node this message is originally from
 	 */
 	public DTNHost getFrom() {
-		return this.from;
+		return this.body.from;
 	}
 
 	/**
@@ -95,7 +117,7 @@ public class Message implements Comparable<Message> {
 	 * @return the node this message is originally to
 	 */
 	public DTNHost getTo() {
-		return this.to;
+		return this.body.to;
 	}
 
 	/**
@@ -103,7 +125,37 @@ public class Message implements Comparable<Message> {
 	 * @return The message id
 	 */
 	public String getId() {
-		return this.id;
+		return this.body.id;
+	}
+	
+	/**
+	 * Returns an integer identifier for the ID of the message. All messages
+	 * with the same ID (e.g., the replicates of a message) have the same
+	 * integer identifier and the identifiers are given in a dense sequence
+	 * starting from zero, so they can be used, e.g., as bit set indices.
+	 * The identifiers are never reused during a run: a bit set indexed by
+	 * them takes one bit per message ID created before the largest ID
+	 * in the set (e.g., 125 kB for a million messages).
+	 * @return The integer identifier of the message ID
+	 */
+	public int getIntId() {
+		return this.body.intId;
+	}
+	
+	/**
+	 * Returns the integer identifier for a message ID. A new identifier is
+	 * given if the ID hasn't been seen before.
+	 * @param id The message ID
+	 * @return The integer identifier of the ID
+	 * @see #getIntId()
+	 */
+	private static synchronized int internId(String id) {
+		Integer intId = intIds.get(id);
+		if (intId == null) {
+			intId = intIds.size();
+			intIds.put(id, intId);
+		}
+		return intId;
 	}
 	
 	/**
@@ -120,7 +172,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the message
 	 */
 	public int getSize() {
-		return this.size;
+		return this.body.size;
 	}
 
 	/**
@@ -128,15 +180,42 @@ public class Message implements Comparable<Message> {
 	 * @param node The node to add
 	 */
 	public void addNodeOnPath(DTNHost node) {
-		this.path.add(node);
+		this.path = new PathNode(node, this.path);
+		this.hops = null;
 	}
 	
 	/**
 	 * Returns a list of nodes this message has passed so far
-	 * @return The list as vector
+	 * @return The list (that can't be modified)
 	 */
 	public List<DTNHost> getHops() {
-		return this.path;
+		if (this.hops == null) {
+			DTNHost[] nodes = new DTNHost[this.path.length];
+			for (PathNode n = this.path; n != null; n = n.previous) {
+				nodes[n.length - 1] = n.node;
+			}
+			this.hops = Collections.unmodifiableList(Arrays.asList(nodes));
+		}
+		return this.hops;
+	}
+	
+	/**
+	 * Returns true if the given node is on the path of this message (i.e.,
+	 * the message has passed the node). Usually takes constant time; the 
+	 * path is searched only if the node's bit is set in the path's filter.
+	 * @param node The node to look for
+	 * @return True if the message has passed the node, false if not
+	 */
+	public boolean isOnPath(DTNHost node) {
+		if ((this.path.filter & PathNode.filterBit(node)) == 0) {
+			return false;
+		}
+		for (PathNode n = this.path; n != null; n = n.previous) {
+			if (n.node == node) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	/**
@@ -144,7 +223,7 @@ public class Message implements Comparable<Message> {
 	 * @return the amount of hops this message has passed
 	 */
 	public int getHopCount() {
-		return this.path.size() -1;
+		return this.path.length -1;
 	}
 	
 	/** 
@@ -154,16 +233,36 @@ public class Message implements Comparable<Message> {
 	 * @return The TTL (minutes)
 	 */
 	public int getTtl() {
-		if (this.initTtl == INFINITE_TTL) {
+		if (this.body.initTtl == INFINITE_TTL) {
 			return Integer.MAX_VALUE;
 		}
 		else {
-			return (int)( ((this.initTtl * 60) -
-					(SimClock.getTime()-this.timeCreated)) /60.0 );
+			return (int)( ((this.body.initTtl * 60) -
+					(SimClock.getTime()-this.body.timeCreated)) /60.0 );
 		}
 	}
 	
 	
+	/**
+	 * Returns the initial TTL (minutes) of the message 
+	 * @return The initial TTL or {@link #INFINITE_TTL} if the TTL is infinite
+	 */
+	public int getInitialTtl() {
+		return this.body.initTtl;
+	}
+	
+	/**
+	 * Returns the simulation time when the TTL of this message expires
+	 * @return The expiry time or Double.POSITIVE_INFINITY if the TTL is
+	 * infinite
+	 */
+	public double getExpiryTime() {
+		if (this.body.initTtl == INFINITE_TTL) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return this.body.timeCreated + this.body.initTtl * 60.0;
+	}
+	
 	/**
 	 * Sets the initial TTL (time-to-live) for this message. The initial
 	 * TTL is the TTL when the original message was created. The current TTL
@@ -171,7 +270,7 @@ public class Message implements Comparable<Message> {
 	 * @param ttl The time-to-live to set
 	 */
 	public void setTtl(int ttl) {
-		this.initTtl = ttl;
+		writableBody().initTtl = ttl;
 	}
 	
 	/**
@@ -190,12 +289,31 @@ public class Message implements Comparable<Message> {
 		return this.timeReceived;
 	}
 	
+	/**
+	 * Sets the running number of this message in the buffer it is added
+	 * to. The router gives the numbers in the order the messages are 
+	 * added to its buffer.
+	 * @param seqNo The running number
+	 */
+	public void setBufferSeqNo(int seqNo) {
+		this.bufferSeqNo = seqNo;
+	}
+	
+	/**
+	 * Returns the running number of this message in the buffer it was 
+	 * added to
+	 * @return The running number
+	 */
+	public int getBufferSeqNo() {
+		return this.bufferSeqNo;
+	}
+	
 	/**
 	 * Returns the time when this message was created
 	 * @return the time when this message was created
 	 */
 	public double getCreationTime() {
-		return this.timeCreated;
+		return this.body.timeCreated;
 	}
 	
 	/**
@@ -203,7 +321,7 @@ public class Message implements Comparable<Message> {
 	 * @param request The request message
 	 */
 	public void setRequest(Message request) {
-		this.requestMsg = request;
+		writableBody().requestMsg = request;
 	}
 	
 	/**
@@ -212,7 +330,7 @@ public class Message implements Comparable<Message> {
 	 * @return the message this message is response to
 	 */
 	public Message getRequest() {
-		return this.requestMsg;
+		return this.body.requestMsg;
 	}
 	
 	/**
@@ -220,7 +338,7 @@ public class Message implements Comparable<Message> {
 	 * @return true if this message is a response message
 	 */
 	public boolean isResponse() {
-		return this.requestMsg != null;
+		return this.body.requestMsg != null;
 	}
 	
 	/**
@@ -229,7 +347,7 @@ public class Message implements Comparable<Message> {
 	 * @param size Size of the response message
 	 */
 	public void setResponseSize(int size) {
-		this.responseSize = size;
+		writableBody().responseSize = size;
 	}
 	
 	/**
@@ -238,7 +356,7 @@ public class Message implements Comparable<Message> {
 	 * @return the size of the requested response message
 	 */
 	public int getResponseSize() {
-		return responseSize;
+		return this.body.responseSize;
 	}
 	
 	/**
@@ -246,29 +364,35 @@ public class Message implements Comparable<Message> {
 	 * @return a string representation of the message
 	 */
 	public String toString () {
-		return id;
+		return this.body.id;
 	}
 
 	/**
-	 * Deep copies message data from other message. If new fields are
+	 * Copies message data from other message. If new fields are
 	 * introduced to this class, most likely they should be copied here too
-	 * (unless done in constructor).
+	 * (unless done in constructor). The body, the path and the properties
+	 * are shared with the other message until either of the messages 
+	 * modifies them.
 	 * @param m The message where the data is copied
 	 */
 	protected void copyFrom(Message m) {
-		this.path = new ArrayList<DTNHost>(m.path);
-		this.timeCreated = m.timeCreated;
-		this.responseSize = m.responseSize;
-		this.requestMsg  = m.requestMsg;
-		this.initTtl = m.initTtl;
-		this.appID = m.appID;
+		this.body = m.body;
+		this.bodyShared = true;
+		m.bodyShared = true;
+		this.path = m.path;
+		this.hops = m.hops;
 		
 		if (m.properties != null) {
-			Set<String> keys = m.properties.keySet();
-			for (String key : keys) {
-				updateProperty(key, m.getProperty(key));
-			}
+			this.properties = m.properties;
+			this.propertiesShared = true;
+			m.propertiesShared = true;
+		}
+		if (m.intProperties != null) {
+			this.intProperties = m.intProperties;
+			this.intPropertiesShared = true;
+			m.intPropertiesShared = true;
 		}
+		this.intPropertiesSet = m.intPropertiesSet;
 	}
 	
 	/**
@@ -316,9 +440,104 @@ public class Message implements Comparable<Message> {
 			/* lazy creation to prevent performance overhead for classes
 			   that don't use the property feature  */
 			this.properties = new HashMap<String, Object>();
-		}		
+		}
+		else if (this.propertiesShared) {
+			/* copy on write; other replicates still use the old container */
+			this.properties = new HashMap<String, Object>(this.properties);
+			this.propertiesShared = false;
+		}
 
 		this.properties.put(key, value);
+	}
+	
+	/**
+	 * Registers an integer property and returns its slot. Integer 
+	 * properties are faster to use than the generic properties (no hashing
+	 * or boxing), so routers that update a numeric value of messages in
+	 * every transfer should use them. Registering the same key again 
+	 * returns the same slot; the slots should be registered once, e.g., to
+	 * a static field of the class that uses the property. The values are
+	 * not visible through {@link #getProperty(String)}.
+	 * @param key The key of the property (e.g. the name space of the 
+	 * class + a name)
+	 * @return The slot for {@link #getIntProperty(int)}, 
+	 * {@link #addIntProperty(int, int)} and {@link #setIntProperty(int, int)}
+	 * @throws SimError if too many integer properties are registered
+	 */
+	public static synchronized int registerIntProperty(String key) {
+		Integer slot = intPropertySlots.get(key);
+		if (slot == null) {
+			slot = intPropertySlots.size();
+			if (slot >= Long.SIZE) {
+				throw new SimError("Can't register integer property " + key +
+						"; only " + Long.SIZE + " integer properties allowed");
+			}
+			intPropertySlots.put(key, slot);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Returns the value of an integer property
+	 * @param slot The slot of the property
+	 * @return The value or 0 if no value has been set
+	 * @see #registerIntProperty(String)
+	 */
+	public int getIntProperty(int slot) {
+		if (this.intProperties == null || slot >= this.intProperties.length) {
+			return 0;
+		}
+		return this.intProperties[slot];
+	}
+	
+	/**
+	 * Returns true if a value has been set for an integer property
+	 * @param slot The slot of the property
+	 * @return True if the property has a value
+	 * @see #registerIntProperty(String)
+	 */
+	public boolean hasIntProperty(int slot) {
+		return (this.intPropertiesSet & (1L << slot)) != 0;
+	}
+	
+	/**
+	 * Adds an integer property for this message
+	 * @param slot The slot of the property
+	 * @param value The value to store
+	 * @throws SimError if the message already has a value for the property
+	 * @see #registerIntProperty(String)
+	 */
+	public void addIntProperty(int slot, int value) throws SimError {
+		if (hasIntProperty(slot)) {
+			/* check to prevent accidental slot collisions */
+			throw new SimError("Message " + this + " already contains value " +
+					"for integer property slot " + slot);
+		}
+		
+		this.setIntProperty(slot, value);
+	}
+	
+	/**
+	 * Sets the value of an integer property. Unlike 
+	 * {@link #addIntProperty(int, int)}, this doesn't check whether the
+	 * property already has a value but replaces any old value.
+	 * @param slot The slot of the property
+	 * @param value The value to set
+	 * @see #registerIntProperty(String)
+	 */
+	public void setIntProperty(int slot, int value) {
+		if (this.intProperties == null) {
+			this.intProperties = new int[slot + 1];
+		}
+		else if (this.intPropertiesShared || 
+				slot >= this.intProperties.length) {
+			/* copy on write; other replicates still use the old values */
+			this.intProperties = Arrays.copyOf(this.intProperties,
+					Math.max(slot + 1, this.intProperties.length));
+			this.intPropertiesShared = false;
+		}
+		this.intProperties[slot] = value;
+		this.intPropertiesSet |= 1L << slot;
 	}
 	
 	/**
@@ -326,7 +545,7 @@ public class Message implements Comparable<Message> {
 	 * @return A replicate of the message
 	 */
 	public Message replicate() {
-		Message m = new Message(from, to, id, size);
+		Message m = new Message(this.body);
 		m.copyFrom(this);
 		return m;
 	}
@@ -339,25 +558,124 @@ public class Message implements Comparable<Message> {
 		return toString().compareTo(m.toString());
 	}
 	
+	/**
+	 * The data of a message that is the same for all its replicates. One
+	 * body is shared by all the replicates (in all the hosts' buffers)
+	 * until some replicate modifies it. This takes 40 bytes (on a 64 bit
+	 * JVM with compressed references) from every replicate and adds one
+	 * 56 byte body per message, so it saves memory for every message that
+	 * has more than one replicate.
+	 */
+	private static class Body {
+		private final DTNHost from;
+		private final DTNHost to;
+		/** Identifier of the message */
+		private final String id;
+		/** Integer identifier of the message ID */
+		private final int intId;
+		/** Size of the message (bytes) */
+		private final int size;
+		/** The time when this message was created */
+		private double timeCreated;
+		/** Initial TTL of the message */
+		private int initTtl;
+		/** if a response to this message is required, this is the size of 
+		 * the response message (or 0 if no response is requested) */
+		private int responseSize;
+		/** if this message is a response message, this is set to the 
+		 * request msg*/
+		private Message requestMsg;
+		/** Application ID of the application that created the message */
+		private String appID;
+		
+		private Body(DTNHost from, DTNHost to, String id, int intId, 
+				int size) {
+			this.from = from;
+			this.to = to;
+			this.id = id;
+			this.intId = intId;
+			this.size = size;
+			this.timeCreated = SimClock.getTime();
+			this.initTtl = INFINITE_TTL;
+			this.responseSize = 0;
+			this.requestMsg = null;
+			this.appID = null;
+		}
+		
+		/**
+		 * Returns a copy of this body
+		 */
+		private Body copy() {
+			Body b = new Body(from, to, id, intId, size);
+			b.timeCreated = this.timeCreated;
+			b.initTtl = this.initTtl;
+			b.responseSize = this.responseSize;
+			b.requestMsg = this.requestMsg;
+			b.appID = this.appID;
+			return b;
+		}
+	}
+	
+	/**
+	 * A node on the path of a message. The nodes are immutable so the
+	 * replicates of a message can share the part of the path they have in
+	 * common.
+	 */
+	private static class PathNode {
+		/** the node the message has passed */
+		private final DTNHost node;
+		/** the previous node on the path (or null for the first node) */
+		private final PathNode previous;
+		/** number of nodes on the path up to (and including) this node */
+		private final int length;
+		/** bloom filter of the nodes on the path up to this node: one bit
+		 * (the host address modulo 64) per node */
+		private final long filter;
+		
+		private PathNode(DTNHost node, PathNode previous) {
+			this.node = node;
+			this.previous = previous;
+			if (previous == null) {
+				this.length = 1;
+				this.filter = filterBit(node);
+			}
+			else {
+				this.length = previous.length + 1;
+				this.filter = previous.filter | filterBit(node);
+			}
+		}
+		
+		/**
+		 * Returns the filter bit of a node
+		 */
+		private static long filterBit(DTNHost node) {
+			if (node == null) {
+				return 1L; // messages may be created without hosts in tests
+			}
+			return 1L << node.getAddress(); // shift uses the lowest 6 bits
+		}
+	}
+	
 	/**
 	 * Resets all static fields to default values
 	 */
 	public static void reset() {
-		nextUniqueId = 0;
+		nextUniqueId = new AtomicInteger();
+		intIds = new HashMap<String, Integer>();
 	}
 
 	/**
 	 * @return the appID
 	 */
 	public String getAppID() {
-		return appID;
+		return this.body.appID;
 	}
 
 	/**
 	 * @param appID the appID to set
 	 */
 	public void setAppID(String appID) {
-		this.appID = appID;
+		writableBody().appID = appID;
 	}
 	
 }
@@ -4,12 +4,14 @@
  */
 package core;
 
-import interfaces.ConnectivityGrid;
 import interfaces.ConnectivityOptimizer;
+import interfaces.ConnectivityOptimizer.InterfaceVisitor;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import routing.util.EnergyModel;
 
@@ -54,6 +56,9 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 
 	protected String interfacetype;
 	protected List<Connection> connections; // connected hosts
+	/** the interfaces this interface has a connection to (index for 
+	 * {@link #isConnected(NetworkInterface)}) */
+	private Set<NetworkInterface> connectedInterfaces;
 	private List<ConnectionListener> cListeners = null; // list of listeners
 	private int address; // network interface address
 	protected double transmitRange;
@@ -70,6 +75,16 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	private int activenessJitterMax;
 	/** this interface's activeness jitter value */
 	private int activenessJitterValue;
+	
+	/** interfaces within range found by {@link #detectInterfacesInRange()}
+	 * (the list is reused between detection rounds) */
+	private List<NetworkInterface> detectedInterfaces;
+	/** are the detected interfaces valid for the next update */
+	private boolean hasDetectedInterfaces;
+	/** visitor that collects the detected interfaces */
+	private InterfaceVisitor rangeDetector;
+	/** visitor that tries to connect to the visited interfaces */
+	private InterfaceVisitor nearConnector;
 
 	static {
 		DTNSim.registerForReset(NetworkInterface.class.getCanonicalName());
@@ -89,6 +104,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	public NetworkInterface(Settings s) {
 		this.interfacetype = s.getNameSpace();
 		this.connections = new ArrayList<Connection>();
+		this.connectedInterfaces = new HashSet<NetworkInterface>();
 
 		this.transmitRange = s.getDouble(TRANSMIT_RANGE_S);
 		this.transmitSpeed = s.getInt(TRANSMIT_SPEED_S);
@@ -102,6 +118,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	public NetworkInterface() {
 		this.interfacetype = "Default";
 		this.connections = new ArrayList<Connection>();
+		this.connectedInterfaces = new HashSet<NetworkInterface>();
 	}
 	
 	/**
@@ -109,6 +126,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 */
 	public NetworkInterface(NetworkInterface ni) {
 		this.connections = new ArrayList<Connection>();
+		this.connectedInterfaces = new HashSet<NetworkInterface>();
 		this.host = ni.host;
 		this.cListeners = ni.cListeners;
 		this.interfacetype = ni.interfacetype;
@@ -154,7 +172,7 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		}
 		
 		if (transmitRange > 0) {
-			optimizer = ConnectivityGrid.ConnectivityGridFactory(
+			optimizer = ConnectivityOptimizer.ConnectivityOptimizerFactory(
 					this.interfacetype.hashCode(), transmitRange);
 			optimizer.addInterface(this);
 		} else {
@@ -196,6 +214,14 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	public void setClisteners(List<ConnectionListener> cListeners) {
 		this.cListeners = cListeners;
 	}
+	
+	/**
+	 * Returns the connection listener list of this interface
+	 * @return The list or null if this interface has no listeners
+	 */
+	List<ConnectionListener> getConnectionListeners() {
+		return this.cListeners;
+	}
 
 	/**
 	 * Returns the transmit range of this network layer
@@ -308,10 +334,12 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 */
 	protected void connect(Connection con, NetworkInterface anotherInterface) {
 		this.connections.add(con);
+		this.connectedInterfaces.add(anotherInterface);
 		notifyConnectionListeners(CON_UP, anotherInterface.getHost());
 
 		// set up bidirectional connection
 		anotherInterface.getConnections().add(con);
+		anotherInterface.connectedInterfaces.add(this);
 
 		// inform routers about the connection
 		this.host.connectionUp(con);
@@ -326,6 +354,8 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	protected void disconnect(Connection con, 
 			NetworkInterface anotherInterface) {
 		con.setUpState(false);
+		this.connectedInterfaces.remove(anotherInterface);
+		anotherInterface.connectedInterfaces.remove(this);
 		notifyConnectionListeners(CON_DOWN, anotherInterface.getHost());
 
 		// tear down bidirectional connection
@@ -361,13 +391,111 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 	 * @return True if the two hosts are connected
 	 */
 	protected boolean isConnected(NetworkInterface netinterface) {
-		for (int i = 0; i < this.connections.size(); i++) {
-			if (this.connections.get(i).getOtherInterface(this) == 
-				netinterface) {
-				return true;
+		return this.connectedInterfaces.contains(netinterface);
+	}
+	
+	/**
+	 * Updates the location of this interface to the connectivity optimizer
+	 * (if this interface has one).
+	 */
+	public void updateOptimizerLocation() {
+		if (optimizer != null) {
+			optimizer.updateLocation(this);
+		}
+	}
+	
+	/**
+	 * Finds the interfaces that are within range of this interface and 
+	 * stores them to be used in the next {@link #update()}. This method 
+	 * doesn't change the state of any other object, so it can be called
+	 * for different interfaces in parallel as long as the hosts don't move
+	 * and the connectivity optimizer is not updated at the same time.
+	 */
+	public void detectInterfacesInRange() {
+		if (optimizer == null) {
+			return;
+		}
+		
+		startDetection();
+		if (this.rangeDetector == null) {
+			this.rangeDetector = new InterfaceVisitor() {
+				public void visit(NetworkInterface ni) {
+					if (ni != NetworkInterface.this && isWithinRange(ni)) {
+						detectedInterfaces.add(ni);
+					}
+				}
+			};
+		}
+		optimizer.visitNearInterfaces(this, this.rangeDetector);
+	}
+	
+	/**
+	 * Starts a new detection round: forgets the interfaces detected 
+	 * earlier and uses the ones added with 
+	 * {@link #addDetectedInterface(NetworkInterface)} in the next update.
+	 */
+	void startDetection() {
+		if (this.detectedInterfaces == null) {
+			this.detectedInterfaces = new ArrayList<NetworkInterface>();
+		}
+		else {
+			this.detectedInterfaces.clear();
+		}
+		this.hasDetectedInterfaces = true;
+	}
+	
+	/**
+	 * Adds an interface to the interfaces within range in the current 
+	 * detection round (see {@link #startDetection()}) 
+	 * @param ni The interface that is within range
+	 */
+	void addDetectedInterface(NetworkInterface ni) {
+		this.detectedInterfaces.add(ni);
+	}
+	
+	/**
+	 * Discards the interfaces found by the last 
+	 * {@link #detectInterfacesInRange()} (if they were not used already)
+	 */
+	public void clearDetectedInterfaces() {
+		this.hasDetectedInterfaces = false;
+	}
+	
+	/**
+	 * Returns the interfaces detected to be within range for the next 
+	 * update, if they were detected and not used yet
+	 * @return The detected interfaces or null
+	 */
+	List<NetworkInterface> getDetectedInterfaces() {
+		return this.hasDetectedInterfaces ? this.detectedInterfaces : null;
+	}
+	
+	/**
+	 * Tries to connect (using {@link #connect(NetworkInterface)}) to all 
+	 * the interfaces near this interface. If the interfaces within range 
+	 * were detected beforehand (and not used yet), tries to connect only
+	 * to them.
+	 */
+	protected void connectToNearInterfaces() {
+		if (this.hasDetectedInterfaces) {
+			this.hasDetectedInterfaces = false;
+			/* near interfaces would include this one, which is always 
+			   checked for scanning; keep the scanning state the same */
+			isScanning();
+			for (int i=0, n = this.detectedInterfaces.size(); i < n; i++) {
+				connect(this.detectedInterfaces.get(i));
 			}
+			return;
 		}
-		return false;
+		
+		if (this.nearConnector == null) {
+			this.nearConnector = new InterfaceVisitor() {
+				public void visit(NetworkInterface ni) {
+					connect(ni);
+				}
+			};
+		}
+		optimizer.visitNearInterfaces(this, this.nearConnector);
 	}
 	
 	/**
@@ -467,6 +595,8 @@ abstract public class NetworkInterface implements ModuleCommunicationListener {
 		Connection con = this.connections.get(index);
 		DTNHost anotherNode = anotherInterface.getHost();
 		con.setUpState(false);
+		this.connectedInterfaces.remove(anotherInterface);
+		anotherInterface.connectedInterfaces.remove(this);
 		notifyConnectionListeners(CON_DOWN, anotherNode);
 
 		// tear down bidirectional connection
@@ -4,14 +4,28 @@
  */
 package core;
 
+import input.ContactPredictionQueue;
 import input.EventQueue;
 import input.ExternalEvent;
 import input.ScheduledUpdatesQueue;
+import interfaces.ConnectivityOptimizer;
+import interfaces.ConnectivityOptimizer.InterfaceVisitor;
+import interfaces.ConnectivityOptimizer.PairVisitor;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import movement.MovementModel;
+import util.Shuffler;
 
 /**
  * World contains all the nodes and is responsible for updating their
@@ -37,6 +51,131 @@ public class World {
 	 */
 	public static final String SIMULATE_CON_ONCE_S = "simulateConnectionsOnce";
 
+	/**
+	 * Should only the hosts affected by an external event be updated after
+	 * the event -setting id ({@value}). Boolean (true/false) variable.
+	 * If true, after every external event only the hosts given by 
+	 * {@link ExternalEvent#getAffectedHosts()} and the hosts they are 
+	 * connected to are updated; all hosts are still updated once per
+	 * update interval. The affected hosts are updated in the same order
+	 * as in a full update, so with a randomized update order (see
+	 * {@link #RANDOMIZE_UPDATES_S}) every event still shuffles and goes
+	 * through the update order of all hosts, i.e., costs time linear to
+	 * the number of hosts; without randomizing only the affected hosts are
+	 * sorted. Default is {@link #DEF_EVENT_DRIVEN_UPDATES}.
+	 */
+	public static final String EVENT_DRIVEN_UPDATES_S = "eventDrivenUpdates";
+	/** should only the hosts affected by an event be updated -setting's
+	 * default value ({@value}) */
+	public static final boolean DEF_EVENT_DRIVEN_UPDATES = false;
+
+	/**
+	 * Number of threads used for moving the hosts -setting id ({@value}).
+	 * Integer. If bigger than one, the hosts whose movement models are 
+	 * {@link MovementModel#isParallelSafe() parallel safe} are moved in 
+	 * parallel, and the rest of the hosts sequentially after them. 
+	 * Parallel movement also enables host specific movement rngs by default 
+	 * (see {@link MovementModel#RNG_PER_HOST_S}) so the results don't 
+	 * depend on the number of threads; disabling them is a settings error
+	 * since the hosts would draw from the shared rng in a nondeterministic
+	 * order. 
+	 * Default is {@link #DEF_MOVEMENT_THREADS}.
+	 */
+	public static final String MOVEMENT_THREADS_S = "movementThreads";
+	/** number of movement threads -setting's default value ({@value}) */
+	public static final int DEF_MOVEMENT_THREADS = 1;
+
+	/**
+	 * Number of threads used for detecting the interfaces within range of
+	 * each other -setting id ({@value}). Integer. If bigger than one, before
+	 * every update of all hosts the interfaces within range are detected in
+	 * parallel (read only phase) and the connections are then created and 
+	 * torn down while updating the hosts in the normal update order 
+	 * (sequential commit phase), so connection events happen in the same
+	 * order regardless of the number of threads, and (in practice) in the 
+	 * same order as without the detection phase. The only difference is 
+	 * that without it a host finds the hosts that are updated after it 
+	 * from the connectivity optimizer cells of their previous locations, 
+	 * so if such a host has moved to a cell that is not near its old one
+	 * (e.g., while its radio was off) the hosts may connect in a different
+	 * order. Default is {@link #DEF_CONNECTIVITY_THREADS}.
+	 */
+	public static final String CONNECTIVITY_THREADS_S = "connectivityThreads";
+	/** number of connectivity threads -setting's default value ({@value}) */
+	public static final int DEF_CONNECTIVITY_THREADS = 1;
+	
+	/**
+	 * Should the interfaces within range be detected by going through all
+	 * the pairs of near interfaces once -setting id ({@value}). Boolean. 
+	 * If true, the interfaces within range are detected before every update 
+	 * of all hosts (like with {@link #CONNECTIVITY_THREADS_S}) but every
+	 * pair of interfaces is checked only once instead of checking it from
+	 * both of the interfaces. The connections are created in the same order
+	 * as with the parallel detection (and, in practice, as without the 
+	 * detection phase). Can't be used with parallel connectivity 
+	 * detection. Default is {@link #DEF_PAIR_DETECTION}.
+	 */
+	public static final String PAIR_DETECTION_S = "pairDetection";
+	/** pair detection -setting's default value ({@value}) */
+	public static final boolean DEF_PAIR_DETECTION = false;
+	
+	/**
+	 * Should the times when hosts get in or out of range of each other be 
+	 * predicted -setting id ({@value}). Boolean. If true, after every update 
+	 * of all hosts the world computes, for all pairs of near interfaces, 
+	 * when the hosts get in or out of range if they keep moving along their 
+	 * current straight paths, and schedules host updates for those times 
+	 * (and for the times when the hosts reach their waypoints) within the 
+	 * next update interval. Only the hosts of the pair (or the host whose
+	 * path changes) and the hosts connected to them are updated at those
+	 * times. Before every event, all hosts are moved to the event's time,
+	 * so every event costs time linear to the number of hosts (moving is
+	 * about half of the event processing time in the default scenario 
+	 * with a 5 second update interval). 
+	 * This way connections are created and torn down at (about) the right
+	 * times even with long update intervals. Only interfaces that the 
+	 * connectivity optimizer considers near each other at the start of an 
+	 * update interval are checked, so the optimizers are given a movement 
+	 * margin (see {@link ConnectivityOptimizer#setMovementMargin(double)}) 
+	 * of twice the distance the fastest host (by the maximum of its 
+	 * movement model's speed setting) moves during an interval. With the 
+	 * grid optimizer, the cell size (see 
+	 * {@link interfaces.ConnectivityGrid#CELL_SIZE_MULT_S}) must be big 
+	 * enough for the margin. Default is {@link #DEF_KINETIC_CONTACTS}.
+	 */
+	public static final String KINETIC_CONTACTS_S = "kineticContacts";
+	/** kinetic contacts -setting's default value ({@value}) */
+	public static final boolean DEF_KINETIC_CONTACTS = false;
+	/** how much after the predicted contact change the update is scheduled
+	 * (to make sure the distance has crossed the range in the update) */
+	private static final double KINETIC_TIME_MARGIN = 1e-6;
+	
+	/**
+	 * Number of threads used for updating the hosts (and their routers)
+	 * -setting id ({@value}). Integer. If bigger than one, the hosts are 
+	 * divided to groups that are connected (or within range) of each 
+	 * other, i.e., the components of the contact graph, and the groups are
+	 * updated in parallel. The hosts of a group are updated in the normal
+	 * update order, so the result is the same as when updating all the 
+	 * hosts in that order: hosts of different groups don't affect each 
+	 * other. The message and connection listeners are informed after the 
+	 * parallel update in the same order as in sequential updating (but the 
+	 * messages given to them are in the state they are after the update).
+	 * Groups that have a host whose router is not 
+	 * {@link routing.MessageRouter#isParallelSafe() parallel safe} or has 
+	 * applications are updated sequentially. The interfaces within range 
+	 * must be detected before the updates, so pair detection 
+	 * (see {@link #PAIR_DETECTION_S}) is used unless the detection is done 
+	 * in parallel. Default is {@link #DEF_ROUTER_THREADS}.
+	 */
+	public static final String ROUTER_THREADS_S = "routerThreads";
+	/** number of router update threads -setting's default value ({@value}) */
+	public static final int DEF_ROUTER_THREADS = 1;
+	
+	/** how many tasks there are per worker thread (for balancing the load 
+	 * between the threads) */
+	private static final int TASKS_PER_THREAD = 4;
+
 	private int sizeX;
 	private int sizeY;
 	private List<EventQueue> eventQueues;
@@ -50,6 +189,8 @@ public class World {
 	/** nodes in the order they should be updated (if the order should be 
 	 * randomized; null value means that the order should not be randomized) */
 	private ArrayList<DTNHost> updateOrder;
+	/** shuffler for the update order (if the order should be randomized) */
+	private Shuffler shuffler;
 	/** is cancellation of simulation requested from UI */
 	private boolean isCancelled;
 	private List<UpdateListener> updateListeners;
@@ -57,6 +198,51 @@ public class World {
 	private ScheduledUpdatesQueue scheduledUpdates;
 	private boolean simulateConOnce;
 	private boolean isConSimulated;
+	/** should only the hosts affected by an event be updated after it */
+	private boolean eventDrivenUpdates;
+	/** hosts to update after the current event (in event driven mode) */
+	private ArrayList<DTNHost> affectedHosts;
+	/** the event round when a host (by address) was last marked affected */
+	private int[] affectedRound;
+	/** running number of the event driven update rounds */
+	private int eventRound;
+	/** thread pool for the parallel phases or null if everything is done
+	 * sequentially */
+	private ExecutorService workerPool;
+	/** tasks that move the parallel safe hosts or null if hosts are moved
+	 * sequentially */
+	private List<Callable<Object>> movementTasks;
+	/** hosts that can't be moved in parallel (in parallel movement) */
+	private List<DTNHost> sequentialMovers;
+	/** time increment for the current parallel movement round */
+	private double movementTimeIncrement;
+	/** all network interfaces of all hosts or null if the interfaces 
+	 * within range are not detected before updating the hosts */
+	private List<NetworkInterface> interfaces;
+	/** the connectivity optimizers of all interfaces (in pair detection) */
+	private List<ConnectivityOptimizer> optimizers;
+	/** visitor that stores the pairs of interfaces within range 
+	 * (in pair detection) */
+	private PairVisitor pairDetector;
+	/** should contact times be predicted */
+	private boolean kineticContacts;
+	/** the connectivity optimizers of all interfaces (in kinetic mode) */
+	private List<ConnectivityOptimizer> kineticOptimizers;
+	/** visitor that predicts the contact times (in kinetic mode) */
+	private ContactPredictor contactPredictor;
+	/** queue of the predicted contact and path changes (in kinetic mode) */
+	private ContactPredictionQueue predictionQueue;
+	/** simulation time until which the hosts have been moved 
+	 * (in kinetic mode) */
+	private double movedUntil;
+	/** tasks that detect the interfaces within range or null if detection
+	 * is done sequentially while updating the hosts */
+	private List<Callable<Object>> connectivityTasks;
+	/** are the interfaces within range detected for the first time */
+	private boolean firstDetection = true;
+	/** updater of the contact graph components in parallel or null if 
+	 * hosts are updated sequentially */
+	private ComponentUpdater componentUpdater;
 
 	/**
 	 * Constructor.
@@ -92,16 +278,201 @@ public class World {
 			randomizeUpdates = s.getBoolean(RANDOMIZE_UPDATES_S);
 		}
 		simulateConOnce = s.getBoolean(SIMULATE_CON_ONCE_S, false);
+		eventDrivenUpdates = s.getBoolean(EVENT_DRIVEN_UPDATES_S, 
+				DEF_EVENT_DRIVEN_UPDATES);
+		
+		this.kineticContacts = s.getBoolean(KINETIC_CONTACTS_S, 
+				DEF_KINETIC_CONTACTS);
+		
+		if (eventDrivenUpdates || kineticContacts) {
+			this.affectedHosts = new ArrayList<DTNHost>();
+			this.affectedRound = new int[this.hosts.size()];
+			this.eventRound = 0;
+		}
+		
+		int movementThreads = s.getInt(MOVEMENT_THREADS_S, 
+				DEF_MOVEMENT_THREADS);
+		int connectivityThreads = s.getInt(CONNECTIVITY_THREADS_S, 
+				DEF_CONNECTIVITY_THREADS);
+		if (movementThreads > 1) {
+			initParallelMovement(movementThreads);
+		}
+		if (connectivityThreads > 1) {
+			initParallelConnectivity(connectivityThreads);
+		}
+		if (s.getBoolean(PAIR_DETECTION_S, DEF_PAIR_DETECTION)) {
+			if (connectivityThreads > 1) {
+				throw new SettingsError("Setting " + PAIR_DETECTION_S + 
+						" can't be used with " + CONNECTIVITY_THREADS_S);
+			}
+			initPairDetection();
+		}
+		int routerThreads = s.getInt(ROUTER_THREADS_S, DEF_ROUTER_THREADS);
+		if (routerThreads > 1) {
+			if (this.interfaces == null) {
+				initPairDetection();
+			}
+			this.componentUpdater = new ComponentUpdater(routerThreads);
+		}
+		
+		if (kineticContacts) {
+			this.kineticOptimizers = collectOptimizers();
+			double maxSpeed = 0;
+			for (DTNHost host : this.hosts) {
+				maxSpeed = Math.max(maxSpeed, 
+						host.getMovement().getMaxSpeed());
+			}
+			double margin = 2 * maxSpeed * this.updateInterval;
+			for (ConnectivityOptimizer optimizer : this.kineticOptimizers) {
+				optimizer.setMovementMargin(margin);
+			}
+			this.contactPredictor = new ContactPredictor();
+			this.predictionQueue = new ContactPredictionQueue();
+		}
+		int nrofThreads = Math.max(movementThreads, 
+				Math.max(connectivityThreads, routerThreads));
+		if (nrofThreads > 1) {
+			this.workerPool = new ForkJoinPool(nrofThreads);
+		}
 		
 		if(randomizeUpdates) {
 			// creates the update order array that can be shuffled
 			this.updateOrder = new ArrayList<DTNHost>(this.hosts);
+			this.shuffler = new Shuffler();
 		}
 		else { // null pointer means "don't randomize"
 			this.updateOrder = null;
 		}
 	}
 
+	/**
+	 * Initializes the thread pool and tasks for parallel movement. The 
+	 * parallel safe hosts are divided to (about) equal sized continuous 
+	 * ranges that are moved by separate tasks.
+	 * @param nrofThreads Number of threads to use
+	 */
+	private void initParallelMovement(int nrofThreads) {
+		if (!MovementModel.isRngPerHost()) {
+			throw new SettingsError("Setting " + MOVEMENT_THREADS_S + 
+					" can't be used with " + MovementModel.MOVEMENT_MODEL_NS + 
+					"." + MovementModel.RNG_PER_HOST_S + " = false");
+		}
+		List<DTNHost> parallelMovers = new ArrayList<DTNHost>();
+		this.sequentialMovers = new ArrayList<DTNHost>();
+		
+		for (DTNHost host : this.hosts) {
+			if (host.getMovement().isParallelSafe()) {
+				parallelMovers.add(host);
+			}
+			else {
+				this.sequentialMovers.add(host);
+			}
+			/* listeners are informed after the parallel movement */
+			host.setMovementEventsDeferred(true);
+		}
+		
+		this.movementTasks = new ArrayList<Callable<Object>>();
+		for (final List<DTNHost> range : 
+				partition(parallelMovers, nrofThreads * TASKS_PER_THREAD)) {
+			this.movementTasks.add(new Callable<Object>() {
+				public Object call() {
+					for (int j=0, m = range.size(); j < m; j++) {
+						range.get(j).move(movementTimeIncrement);
+					}
+					return null;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Initializes the tasks for parallel detection of interfaces within
+	 * range. All interfaces are divided to (about) equal sized continuous
+	 * ranges that are handled by separate tasks.
+	 * @param nrofThreads Number of threads to use
+	 */
+	private void initParallelConnectivity(int nrofThreads) {
+		initInterfaces();
+		
+		this.connectivityTasks = new ArrayList<Callable<Object>>();
+		for (final List<NetworkInterface> range : 
+				partition(interfaces, nrofThreads * TASKS_PER_THREAD)) {
+			this.connectivityTasks.add(new Callable<Object>() {
+				public Object call() {
+					for (int j=0, m = range.size(); j < m; j++) {
+						range.get(j).detectInterfacesInRange();
+					}
+					return null;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Initializes the connectivity optimizers and the visitor for detecting
+	 * the interfaces within range pair by pair.
+	 */
+	private void initPairDetection() {
+		initInterfaces();
+		this.optimizers = collectOptimizers();
+		
+		this.pairDetector = new PairVisitor() {
+			public void visit(NetworkInterface ni1, NetworkInterface ni2) {
+				if (ni1.isWithinRange(ni2)) {
+					ni1.addDetectedInterface(ni2);
+					ni2.addDetectedInterface(ni1);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Returns the (different) connectivity optimizers of all interfaces
+	 * @return List of the optimizers
+	 */
+	private List<ConnectivityOptimizer> collectOptimizers() {
+		List<ConnectivityOptimizer> list = 
+			new ArrayList<ConnectivityOptimizer>();
+		for (DTNHost host : this.hosts) {
+			for (NetworkInterface ni : host.getInterfaces()) {
+				if (ni.optimizer != null && !list.contains(ni.optimizer)) {
+					list.add(ni.optimizer);
+				}
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Collects the network interfaces of all hosts to a list
+	 */
+	private void initInterfaces() {
+		this.interfaces = new ArrayList<NetworkInterface>();
+		for (DTNHost host : this.hosts) {
+			this.interfaces.addAll(host.getInterfaces());
+		}
+	}
+	
+	/**
+	 * Divides a list to (at most) the given number of (about) equal sized
+	 * continuous non-empty sub lists
+	 * @param list The list to divide
+	 * @param nrofParts Number of parts to divide the list to
+	 * @return The sub lists
+	 */
+	private static <T> List<List<T>> partition(List<T> list, int nrofParts) {
+		List<List<T>> parts = new ArrayList<List<T>>(nrofParts);
+		int n = list.size();
+		for (int i=0; i < nrofParts; i++) {
+			List<T> part = list.subList((int)((long)n * i / nrofParts), 
+					(int)((long)n * (i+1) / nrofParts));
+			if (part.size() > 0) {
+				parts.add(part);
+			}
+		}
+		return parts;
+	}
+
 	/**
 	 * Moves hosts in the world for the time given time initialize host 
 	 * positions properly. SimClock must be set to <CODE>-time</CODE> before
@@ -139,6 +510,11 @@ public class World {
 				earliest = eq.nextEventsTime();
 			}
 		}
+		if (predictionQueue != null && 
+				predictionQueue.nextEventsTime() < earliest) {
+			nextQueue = predictionQueue;
+			earliest = predictionQueue.nextEventsTime();
+		}
 
 		this.nextEventQueue = nextQueue;
 		this.nextQueueEventTime = earliest;
@@ -151,22 +527,42 @@ public class World {
 	 */
 	public void update () {
 		double runUntil = SimClock.getTime() + this.updateInterval;
+		this.movedUntil = SimClock.getTime();
 
 		setNextEventQueue();
 
 		/* process all events that are due until next interval update */
 		while (this.nextQueueEventTime <= runUntil) {
+			if (kineticContacts) {
+				moveHostsUntil(this.nextQueueEventTime);
+			}
 			simClock.setTime(this.nextQueueEventTime);
 			ExternalEvent ee = this.nextEventQueue.nextEvent();
 			ee.processEvent(this);
-			updateHosts(); // update all hosts after every event
+			if (eventDrivenUpdates || this.nextEventQueue == predictionQueue) {
+				updateAffectedHosts(ee);
+			}
+			else {
+				updateHosts(); // update all hosts after every event
+			}
+			if (kineticContacts) {
+				predictContacts(false, runUntil);
+			}
 			setNextEventQueue();
 		}
 
-		moveHosts(this.updateInterval);
+		if (kineticContacts) {
+			moveHostsUntil(runUntil);
+		}
+		else {
+			moveHosts(this.updateInterval);
+		}
 		simClock.setTime(runUntil);
 
 		updateHosts();
+		if (kineticContacts) {
+			predictContacts(true, runUntil + this.updateInterval);
+		}
 
 		/* inform all update listeners */
 		for (UpdateListener ul : this.updateListeners) {
@@ -180,7 +576,21 @@ public class World {
 	 * are made in random order.
 	 */
 	private void updateHosts() {
-		if (this.updateOrder == null) { // randomizing is off
+		if (this.updateOrder != null) {
+			assert this.updateOrder.size() == this.hosts.size() : 
+				"Nrof hosts has changed unexpectedly";
+			this.shuffler.shuffle(this.updateOrder, SimClock.getIntTime());
+		}
+		
+		if (this.interfaces != null && simulateConnections) {
+			detectConnectivity();
+		}
+		
+		if (this.componentUpdater != null) {
+			this.componentUpdater.update(this.updateOrder != null ? 
+					this.updateOrder : this.hosts);
+		}
+		else if (this.updateOrder == null) { // randomizing is off
 			for (int i=0, n = hosts.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
@@ -189,10 +599,6 @@ public class World {
 			}
 		}
 		else { // update order randomizing is on
-			assert this.updateOrder.size() == this.hosts.size() : 
-				"Nrof hosts has changed unexpectedly";
-			Random rng = new Random(SimClock.getIntTime());
-			Collections.shuffle(this.updateOrder, rng); 
 			for (int i=0, n = hosts.size();i < n; i++) {
 				if (this.isCancelled) {
 					break;
@@ -201,21 +607,294 @@ public class World {
 			}			
 		}
 		
+		if (this.interfaces != null) {
+			/* inactive (or cancelled) hosts didn't use their detections */
+			for (int i=0, n = interfaces.size(); i < n; i++) {
+				interfaces.get(i).clearDetectedInterfaces();
+			}
+		}
+		
 		if (simulateConOnce && simulateConnections) {
 			simulateConnections = false;
 		}
 	}
+	
+	/**
+	 * Detects the interfaces within range of each other. First the 
+	 * locations of the interfaces are updated to the connectivity 
+	 * optimizers and then the interfaces within range are detected either
+	 * by the parallel tasks or pair by pair. The detections are used when 
+	 * the hosts (and their interfaces) are updated. The locations are 
+	 * updated in the update order and only for the hosts whose radio is
+	 * active, like when the hosts update their interfaces, since the order
+	 * of the interfaces in the optimizers depends on it. The first round 
+	 * is detected with {@link #detectConnectivityInUpdateOrder(List)}.
+	 */
+	private void detectConnectivity() {
+		List<DTNHost> order = this.updateOrder != null ? 
+				this.updateOrder : this.hosts;
+		if (this.firstDetection) {
+			this.firstDetection = false;
+			detectConnectivityInUpdateOrder(order);
+			return;
+		}
+		
+		for (int i=0, n = order.size(); i < n; i++) {
+			DTNHost host = order.get(i);
+			if (host.isRadioActive()) {
+				List<NetworkInterface> nis = host.getInterfaces();
+				for (int j=0, m = nis.size(); j < m; j++) {
+					nis.get(j).updateOptimizerLocation();
+				}
+			}
+		}
+		
+		if (this.connectivityTasks != null) {
+			invokeAll(this.workerPool, this.connectivityTasks);
+			return;
+		}
+		
+		for (int i=0, n = interfaces.size(); i < n; i++) {
+			NetworkInterface ni = interfaces.get(i);
+			if (ni.optimizer != null) {
+				ni.startDetection();
+			}
+		}
+		for (int i=0, n = optimizers.size(); i < n; i++) {
+			optimizers.get(i).visitNearPairs(this.pairDetector);
+		}
+	}
+
+	/**
+	 * Detects the interfaces within range host by host in the update order
+	 * and updates the locations of a host's interfaces to the connectivity
+	 * optimizers just before detecting its interfaces, like a host's 
+	 * interfaces see the others when they are updated without the 
+	 * detection phase. Used on the first detection round, when the 
+	 * optimizers still have all the interfaces where they were added 
+	 * (before the hosts got their initial locations), so that the first 
+	 * connections are created by the same hosts as in sequential mode.
+	 * @param order The update order of the hosts
+	 */
+	private void detectConnectivityInUpdateOrder(List<DTNHost> order) {
+		for (int i=0, n = order.size(); i < n; i++) {
+			DTNHost host = order.get(i);
+			boolean active = host.isRadioActive();
+			List<NetworkInterface> nis = host.getInterfaces();
+			for (int j=0, m = nis.size(); j < m; j++) {
+				if (active) { /* inactive hosts' interfaces are not updated */
+					nis.get(j).updateOptimizerLocation();
+				}
+				nis.get(j).detectInterfacesInRange();
+			}
+		}
+	}
+
+	/**
+	 * Updates only the hosts that the given (already processed) event 
+	 * affected, i.e., the hosts whose addresses the event reports and all
+	 * the hosts they are currently connected to. If the event doesn't
+	 * report the affected hosts, all hosts are updated. The hosts are
+	 * updated in the same (possibly randomized) order as in
+	 * {@link #updateHosts()}.
+	 * @param ee The event that was processed
+	 */
+	private void updateAffectedHosts(ExternalEvent ee) {
+		int[] addresses = ee.getAffectedHosts();
+		if (addresses == null) {
+			updateHosts();
+			return;
+		}
+
+		this.eventRound++;
+		this.affectedHosts.clear();
+		for (int address : addresses) {
+			markAffected(getNodeByAddress(address));
+		}
+		/* hosts connected to the event's hosts (only the first ones) */
+		for (int i=0, n = this.affectedHosts.size(); i < n; i++) {
+			for (Connection con : this.affectedHosts.get(i).getConnections()) {
+				markAffected(con.getOtherNode(this.affectedHosts.get(i)));
+			}
+		}
+
+		if (this.updateOrder != null) {
+			/* same random order as a full update would use */
+			this.shuffler.shuffle(this.updateOrder, SimClock.getIntTime());
+			for (int i=0, n = this.updateOrder.size(); i < n; i++) {
+				if (this.isCancelled) {
+					break;
+				}
+				DTNHost host = this.updateOrder.get(i);
+				if (this.affectedRound[host.getAddress()] == this.eventRound) {
+					host.update(simulateConnections);
+				}
+			}
+			return;
+		}
+
+		Collections.sort(this.affectedHosts); // address (i.e., hosts) order
+		for (int i=0, n = this.affectedHosts.size(); i < n; i++) {
+			if (this.isCancelled) {
+				break;
+			}
+			this.affectedHosts.get(i).update(simulateConnections);
+		}
+	}
+
+	/**
+	 * Adds a host to the list of hosts affected by the current event, 
+	 * unless it is already there.
+	 * @param host The host to add
+	 */
+	private void markAffected(DTNHost host) {
+		int address = host.getAddress();
+		if (this.affectedRound[address] != this.eventRound) {
+			this.affectedRound[address] = this.eventRound;
+			this.affectedHosts.add(host);
+		}
+	}
+
+	/**
+	 * Moves all hosts from the time they were last moved to the given time
+	 * (in kinetic mode) and collects the hosts whose path changes for the
+	 * contact predictor. SimClock must be set to the time when the hosts 
+	 * were last moved. All hosts are moved, not only the ones that the 
+	 * next event affects, since the updated hosts check the range to the
+	 * current locations of all their near hosts, and since moving the 
+	 * hosts in a different order (or with different time steps) would 
+	 * change the order in which the movement models draw random numbers.
+	 * @param time The time until the hosts should be moved
+	 */
+	private void moveHostsUntil(double time) {
+		if (time <= this.movedUntil) {
+			return;
+		}
+		double timeIncrement = time - this.movedUntil;
+		this.movedUntil = time;
+		if (this.movementTasks != null) {
+			moveHostsInParallel(timeIncrement);
+			this.contactPredictor.collectChanged();
+			return;
+		}
+		
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			DTNHost host = hosts.get(i);
+			int pathChanges = host.getPathChanges();
+			host.move(timeIncrement);
+			this.contactPredictor.moved(host, pathChanges);
+		}
+	}
+	
+	/**
+	 * Predicts when the hosts get in or out of range of each other and
+	 * schedules updates for those times. Updates are also scheduled for 
+	 * the times when the hosts' movement changes, and the contacts of those
+	 * hosts are predicted again then.
+	 * @param all If true, the contacts of all hosts are predicted; if 
+	 * false, only the contacts of the hosts whose path has changed since 
+	 * the last prediction (and only their locations in the connectivity
+	 * optimizers are updated)
+	 * @param until The end of the prediction period (exclusive); the 
+	 * hosts are updated anyway at that time
+	 */
+	private void predictContacts(boolean all, double until) {
+		this.contactPredictor.start(all, until);
+		if (this.contactPredictor.all) {
+			for (int i=0, n = hosts.size(); i < n; i++) {
+				updateOptimizerLocations(hosts.get(i));
+			}
+			for (int i=0, n = kineticOptimizers.size(); i < n; i++) {
+				kineticOptimizers.get(i).visitNearPairs(this.contactPredictor);
+			}
+		}
+		else {
+			/* the locations of the other hosts were updated at the start 
+			   of the update interval, which is enough for finding the near
+			   interfaces during the interval */
+			List<DTNHost> changed = this.contactPredictor.changed;
+			for (int i=0, n = changed.size(); i < n; i++) {
+				updateOptimizerLocations(changed.get(i));
+			}
+			for (int i=0, n = changed.size(); i < n; i++) {
+				this.contactPredictor.predictHost(changed.get(i));
+			}
+		}
+		this.contactPredictor.finish();
+	}
+	
+	/**
+	 * Updates the locations of a host's interfaces to their connectivity
+	 * optimizers
+	 * @param host The host whose interfaces' locations are updated
+	 */
+	private void updateOptimizerLocations(DTNHost host) {
+		List<NetworkInterface> nis = host.getInterfaces();
+		for (int j=0, m = nis.size(); j < m; j++) {
+			nis.get(j).updateOptimizerLocation();
+		}
+	}
 
 	/**
 	 * Moves all hosts in the world for a given amount of time
 	 * @param timeIncrement The time how long all nodes should move
 	 */
 	private void moveHosts(double timeIncrement) {
+		if (this.movementTasks != null) {
+			moveHostsInParallel(timeIncrement);
+			return;
+		}
+		
 		for (int i=0,n = hosts.size(); i<n; i++) {
 			DTNHost host = hosts.get(i);
 			host.move(timeIncrement);			
 		}		
 	}
+	
+	/**
+	 * Moves all hosts using the parallel movement tasks and the hosts that
+	 * can't be moved in parallel sequentially after that. Movement 
+	 * listeners are informed after all hosts have moved, in the same order
+	 * as in sequential movement.
+	 * @param timeIncrement The time how long all nodes should move
+	 */
+	private void moveHostsInParallel(double timeIncrement) {
+		this.movementTimeIncrement = timeIncrement;
+		invokeAll(this.workerPool, this.movementTasks);
+		
+		for (int i=0, n = sequentialMovers.size(); i < n; i++) {
+			sequentialMovers.get(i).move(timeIncrement);
+		}
+		for (int i=0, n = hosts.size(); i < n; i++) {
+			hosts.get(i).flushMovementEvents();
+		}
+	}
+	
+	/**
+	 * Runs all the given tasks using the given executor and waits until
+	 * all of them are done. Exceptions thrown by the tasks are re-thrown.
+	 * @param executor The executor to run the tasks with
+	 * @param tasks The tasks to run
+	 */
+	private static void invokeAll(ExecutorService executor, 
+			List<Callable<Object>> tasks) {
+		try {
+			for (Future<Object> f : executor.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			throw new SimError("Interrupted while waiting for tasks", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new SimError((Exception)cause);
+		}
+	}
 
 	/**
 	 * Asynchronously cancels the currently running simulation
@@ -274,4 +953,410 @@ public class World {
 	public void scheduleUpdate(double simTime) {
 		scheduledUpdates.addUpdate(simTime);
 	}
+
+	/**
+	 * Visitor that predicts when the hosts of a pair of interfaces get 
+	 * in or out of range of each other, assuming both hosts keep moving 
+	 * along their current straight paths, and adds events for those 
+	 * times to the prediction queue. 
+	 */
+	private class ContactPredictor implements PairVisitor, InterfaceVisitor {
+		/** the hosts' path changes at the previous prediction */
+		private int[] pathChanges;
+		/** the hosts whose path has changed after the previous prediction
+		 * (in the order of the hosts) */
+		private List<DTNHost> changed;
+		/** has there been any prediction rounds yet */
+		private boolean started;
+		/** are the contacts of all hosts predicted */
+		private boolean all;
+		/** end of the current prediction period */
+		private double until;
+		/** the interface whose near interfaces are being visited */
+		private NetworkInterface current;
+		
+		/**
+		 * Constructor.
+		 */
+		private ContactPredictor() {
+			this.pathChanges = new int[hosts.size()];
+			this.changed = new ArrayList<DTNHost>();
+		}
+		
+		/**
+		 * Starts a new prediction round
+		 * @param all Should the contacts of all hosts be predicted
+		 * @param until End of the prediction period
+		 */
+		private void start(boolean all, double until) {
+			if (!this.started) {
+				this.started = true;
+				all = true;
+			}
+			this.all = all;
+			this.until = until;
+		}
+		
+		/**
+		 * Finishes the prediction round: adds path change events for the 
+		 * predicted hosts
+		 */
+		private void finish() {
+			List<DTNHost> predicted = this.all ? hosts : this.changed;
+			double now = SimClock.getTime();
+			for (int i=0, n = predicted.size(); i < n; i++) {
+				DTNHost host = predicted.get(i);
+				double time = now + host.getStraightMovementTime();
+				if (isInPeriod(time)) {
+					predictionQueue.addPathChange(time, host.getAddress());
+				}
+				this.pathChanges[host.getAddress()] = host.getPathChanges();
+			}
+			this.changed.clear();
+		}
+		
+		/**
+		 * Adds a host to the changed hosts if it has changed its path 
+		 * for the first time after the previous prediction while moving
+		 * @param host The host that has moved
+		 * @param pathChanges The host's path changes before moving
+		 */
+		private void moved(DTNHost host, int pathChanges) {
+			if (pathChanges == this.pathChanges[host.getAddress()] && 
+					isChanged(host)) {
+				this.changed.add(host);
+			}
+		}
+		
+		/**
+		 * Collects the changed hosts by checking all hosts (after moving
+		 * them in parallel)
+		 */
+		private void collectChanged() {
+			this.changed.clear();
+			for (int i=0, n = hosts.size(); i < n; i++) {
+				if (isChanged(hosts.get(i))) {
+					this.changed.add(hosts.get(i));
+				}
+			}
+		}
+		
+		/**
+		 * Returns true if the path of the host has changed after its 
+		 * contacts were predicted
+		 */
+		private boolean isChanged(DTNHost host) {
+			return this.pathChanges[host.getAddress()] != 
+				host.getPathChanges();
+		}
+		
+		/**
+		 * Returns true if the time is within the prediction period
+		 */
+		private boolean isInPeriod(double time) {
+			return time > SimClock.getTime() && time < this.until;
+		}
+		
+		/**
+		 * Predicts the contacts of one host with all the near hosts. 
+		 * If both hosts of a pair have changed, the pair is predicted only
+		 * from the host with the smaller address.
+		 * @param host The host whose contacts are predicted
+		 */
+		private void predictHost(DTNHost host) {
+			List<NetworkInterface> nis = host.getInterfaces();
+			for (int i=0, n = nis.size(); i < n; i++) {
+				this.current = nis.get(i);
+				if (this.current.optimizer != null) {
+					this.current.optimizer.visitNearInterfaces(this.current, 
+							this);
+				}
+			}
+			this.current = null;
+		}
+		
+		public void visit(NetworkInterface ni) {
+			DTNHost other = ni.getHost();
+			if (ni != this.current && (!isChanged(other) || 
+					other.getAddress() > current.getHost().getAddress())) {
+				visit(this.current, ni);
+			}
+		}
+		
+		public void visit(NetworkInterface ni1, NetworkInterface ni2) {
+			DTNHost h1 = ni1.getHost();
+			DTNHost h2 = ni2.getHost();
+			
+			double maxTime = Math.min(h1.getStraightMovementTime(), 
+					h2.getStraightMovementTime());
+			/* relative location and velocity of the 2nd host */
+			double px = h2.getLocation().getX() - h1.getLocation().getX();
+			double py = h2.getLocation().getY() - h1.getLocation().getY();
+			double vx = h2.getVelocityX() - h1.getVelocityX();
+			double vy = h2.getVelocityY() - h1.getVelocityY();
+			double range = Math.min(ni1.getTransmitRange(), 
+					ni2.getTransmitRange());
+			
+			/* solve |p + v*t| = range */
+			double a = vx*vx + vy*vy;
+			double b = px*vx + py*vy;
+			double c = px*px + py*py - range*range;
+			double discriminant = b*b - a*c;
+			if (a == 0 || discriminant < 0) {
+				/* relative location doesn't change or never in range */
+				return;
+			}
+			
+			double root = Math.sqrt(discriminant);
+			/* gets in range and out of range */
+			addChange((-b - root) / a, maxTime, h1, h2);
+			addChange((-b + root) / a, maxTime, h1, h2);
+		}
+		
+		/**
+		 * Adds an event for a predicted contact change
+		 * @param time Time from now when the contact changes
+		 * @param maxTime Time from now until which the prediction is valid
+		 * @param h1 The first host of the contact
+		 * @param h2 The second host of the contact
+		 */
+		private void addChange(double time, double maxTime, DTNHost h1, 
+				DTNHost h2) {
+			time += KINETIC_TIME_MARGIN;
+			if (time < maxTime && isInPeriod(SimClock.getTime() + time)) {
+				predictionQueue.addContactChange(SimClock.getTime() + time, 
+						h1.getAddress(), h2.getAddress());
+			}
+		}
+	}
+
+	/**
+	 * Updates the hosts so that the hosts of each component of the contact
+	 * graph (hosts connected or within range of each other) are updated in
+	 * the update order, but different components are updated in parallel
+	 * (see {@link World#ROUTER_THREADS_S}).
+	 */
+	private class ComponentUpdater {
+		/** is the router of a host (by address) safe to update in parallel */
+		private boolean[] parallelSafe;
+		/** union-find parent of each host (by address) */
+		private int[] parent;
+		/** index of the component whose root a host is (by address) */
+		private int[] rootComponent;
+		/** component of the host in each update order position */
+		private int[] positionComponent;
+		/** start index of each component's positions in the members array */
+		private int[] componentStart;
+		/** update order positions of the hosts grouped by the component */
+		private int[] members;
+		/** should a component be updated sequentially */
+		private boolean[] sequential;
+		/** number of components in the current update */
+		private int nrofComponents;
+		/** index of the next component to update in parallel */
+		private AtomicInteger nextComponent;
+		/** the current update order */
+		private List<DTNHost> order;
+		/** the listener events of each update order position */
+		private ListenerEventRecorder.EventLog[] eventLogs;
+		/** recorders of all the message and connection listener lists */
+		private List<ListenerEventRecorder> recorders;
+		/** tasks that update the components */
+		private List<Callable<Object>> tasks;
+		
+		/**
+		 * Constructor.
+		 * @param nrofThreads Number of threads to use
+		 */
+		private ComponentUpdater(int nrofThreads) {
+			int n = hosts.size();
+			this.parallelSafe = new boolean[n];
+			this.parent = new int[n];
+			this.rootComponent = new int[n];
+			this.positionComponent = new int[n];
+			this.componentStart = new int[n + 1];
+			this.members = new int[n];
+			this.sequential = new boolean[n];
+			this.nextComponent = new AtomicInteger();
+			this.eventLogs = new ListenerEventRecorder.EventLog[n];
+			this.recorders = new ArrayList<ListenerEventRecorder>();
+			
+			Set<List<?>> lists = 
+				Collections.newSetFromMap(new IdentityHashMap<List<?>,Boolean>());
+			for (int i=0; i < n; i++) {
+				DTNHost host = hosts.get(i);
+				/* identity hash codes (used in hash maps) are given by the 
+				   thread that asks for them first, so ask them here */
+				System.identityHashCode(host);
+				this.parallelSafe[i] = host.getRouter().isParallelSafe() && 
+					!host.getRouter().hasApplications();
+				this.eventLogs[i] = new ListenerEventRecorder.EventLog();
+				lists.add(host.getMessageListeners());
+				for (NetworkInterface ni : host.getInterfaces()) {
+					System.identityHashCode(ni);
+					lists.add(ni.getConnectionListeners());
+				}
+			}
+			for (List<?> list : lists) {
+				if (list != null) {
+					this.recorders.add(new ListenerEventRecorder(list));
+				}
+			}
+			
+			this.tasks = new ArrayList<Callable<Object>>();
+			for (int i=0; i < nrofThreads; i++) {
+				this.tasks.add(new Callable<Object>() {
+					public Object call() {
+						try {
+							updateComponents();
+						} finally {
+							ListenerEventRecorder.setCurrentLog(null);
+						}
+						return null;
+					}
+				});
+			}
+		}
+		
+		/**
+		 * Updates all hosts
+		 * @param order The order in which the hosts would be updated 
+		 * sequentially
+		 */
+		private void update(List<DTNHost> order) {
+			this.order = order;
+			findComponents();
+			
+			for (int i=0, n = recorders.size(); i < n; i++) {
+				recorders.get(i).install();
+			}
+			try {
+				this.nextComponent.set(0);
+				invokeAll(workerPool, this.tasks);
+				
+				/* inform the listeners and update the sequential hosts */
+				for (int i=0, n = order.size(); i < n; i++) {
+					if (isCancelled) {
+						break;
+					}
+					if (this.sequential[positionComponent[i]]) {
+						order.get(i).update(simulateConnections);
+					}
+					else {
+						this.eventLogs[i].replay();
+					}
+				}
+			} finally {
+				for (int i=0, n = recorders.size(); i < n; i++) {
+					recorders.get(i).uninstall();
+				}
+			}
+		}
+		
+		/**
+		 * Updates the components that can be updated in parallel until 
+		 * there are no components left
+		 */
+		private void updateComponents() {
+			int c;
+			while ((c = nextComponent.getAndIncrement()) < nrofComponents) {
+				if (this.sequential[c]) {
+					continue;
+				}
+				for (int i = componentStart[c], end = componentStart[c+1];
+						i < end; i++) {
+					int position = this.members[i];
+					ListenerEventRecorder.setCurrentLog(eventLogs[position]);
+					order.get(position).update(simulateConnections);
+				}
+			}
+		}
+		
+		/**
+		 * Finds the components of the contact graph and groups the update
+		 * order positions of the hosts by their component
+		 */
+		private void findComponents() {
+			int n = hosts.size();
+			for (int i=0; i < n; i++) {
+				this.parent[i] = i;
+				this.rootComponent[i] = -1;
+			}
+			for (int i=0; i < n; i++) {
+				List<NetworkInterface> nis = hosts.get(i).getInterfaces();
+				for (int j=0, m = nis.size(); j < m; j++) {
+					NetworkInterface ni = nis.get(j);
+					List<Connection> cons = ni.getConnections();
+					for (int k=0, l = cons.size(); k < l; k++) {
+						union(i, cons.get(k).getOtherInterface(ni).getHost());
+					}
+					List<NetworkInterface> detected = 
+						ni.getDetectedInterfaces();
+					if (detected != null) {
+						for (int k=0, l = detected.size(); k < l; k++) {
+							union(i, detected.get(k).getHost());
+						}
+					}
+				}
+			}
+			
+			/* number the components in the update order and count sizes */
+			this.nrofComponents = 0;
+			for (int i=0; i < n; i++) {
+				int address = order.get(i).getAddress();
+				int root = find(address);
+				int c = this.rootComponent[root];
+				if (c < 0) {
+					c = this.nrofComponents++;
+					this.rootComponent[root] = c;
+					this.componentStart[c + 1] = 0;
+					this.sequential[c] = false;
+				}
+				this.componentStart[c + 1]++;
+				this.positionComponent[i] = c;
+				if (!this.parallelSafe[address]) {
+					this.sequential[c] = true;
+				}
+			}
+			
+			/* components' positions to members array, in the update order */
+			this.componentStart[0] = 0;
+			for (int c=0; c < this.nrofComponents; c++) {
+				this.componentStart[c + 1] += this.componentStart[c];
+			}
+			int[] next = this.rootComponent; /* reused as fill positions */
+			System.arraycopy(this.componentStart, 0, next, 0, 
+					this.nrofComponents);
+			for (int i=0; i < n; i++) {
+				this.members[next[this.positionComponent[i]]++] = i;
+			}
+		}
+		
+		/**
+		 * Merges the components of a host (by address) and another host
+		 */
+		private void union(int address, DTNHost other) {
+			int r1 = find(address);
+			int r2 = find(other.getAddress());
+			if (r1 != r2) {
+				this.parent[r2] = r1;
+			}
+		}
+		
+		/**
+		 * Returns the root of the component of a host (by address)
+		 */
+		private int find(int address) {
+			int root = address;
+			while (this.parent[root] != root) {
+				root = this.parent[root];
+			}
+			while (this.parent[address] != root) { /* path compression */
+				int next = this.parent[address];
+				this.parent[address] = root;
+				address = next;
+			}
+			return root;
+		}
+	}
 }
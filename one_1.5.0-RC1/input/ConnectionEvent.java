@@ -45,7 +45,12 @@ public class ConnectionEvent extends ExternalEvent {
 		
 		from.forceConnection(to, interfaceId, this.isUp);
 	}
-	
+
+	@Override
+	public int[] getAffectedHosts() {
+		return new int[] {this.fromAddr, this.toAddr};
+	}
+
 	@Override
 	public String toString() {
 		return "CONN " + (isUp ? "up" : "down") + " @" + this.time + " " + 
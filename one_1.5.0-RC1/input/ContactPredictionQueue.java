@@ -0,0 +1,98 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package input;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Event queue for the predicted changes in the contacts and movement of
+ * the hosts (see {@link core.World#KINETIC_CONTACTS_S}). The events report
+ * the hosts they affect, so only those hosts need to be updated. Events
+ * with the same time are returned in the order they were added.
+ */
+public class ContactPredictionQueue implements EventQueue {
+	private PriorityQueue<PredictionEvent> queue;
+	/** running number of the added events (for ordering events with the
+	 * same time) */
+	private long nextSeqNo;
+
+	/**
+	 * Constructor. Creates an empty queue.
+	 */
+	public ContactPredictionQueue() {
+		this.queue = new PriorityQueue<PredictionEvent>();
+	}
+
+	/**
+	 * Adds an event for a predicted contact change between two hosts
+	 * @param time Time of the change
+	 * @param host1 Address of the first host
+	 * @param host2 Address of the second host
+	 */
+	public void addContactChange(double time, int host1, int host2) {
+		this.queue.add(new PredictionEvent(time, nextSeqNo++,
+				new int[] {host1, host2}));
+	}
+
+	/**
+	 * Adds an event for a predicted movement (path) change of a host
+	 * @param time Time of the change
+	 * @param host Address of the host
+	 */
+	public void addPathChange(double time, int host) {
+		this.queue.add(new PredictionEvent(time, nextSeqNo++,
+				new int[] {host}));
+	}
+
+	public ExternalEvent nextEvent() {
+		if (this.queue.isEmpty()) {
+			return new ExternalEvent(Double.MAX_VALUE);
+		}
+		return this.queue.poll();
+	}
+
+	public double nextEventsTime() {
+		if (this.queue.isEmpty()) {
+			return Double.MAX_VALUE;
+		}
+		return this.queue.peek().getTime();
+	}
+
+	/**
+	 * A predicted change that affects one or two hosts.
+	 */
+	private static class PredictionEvent extends ExternalEvent {
+		private static final long serialVersionUID = 1L;
+		private long seqNo;
+		private int[] hosts;
+
+		private PredictionEvent(double time, long seqNo, int[] hosts) {
+			super(time);
+			this.seqNo = seqNo;
+			this.hosts = hosts;
+		}
+
+		@Override
+		public int[] getAffectedHosts() {
+			return this.hosts;
+		}
+
+		@Override
+		public int compareTo(ExternalEvent other) {
+			int c = super.compareTo(other);
+			if (c == 0 && other instanceof PredictionEvent) {
+				return Long.compare(this.seqNo, ((PredictionEvent)other).seqNo);
+			}
+			return c;
+		}
+
+		@Override
+		public String toString() {
+			return "PREDICTION @" + this.time + " " +
+				Arrays.toString(this.hosts);
+		}
+	}
+}
@@ -29,6 +29,17 @@ public class ExternalEvent implements Comparable<ExternalEvent>, Serializable {
 		// this is just a dummy event
 	}
 
+	/**
+	 * Returns the network addresses of the hosts whose state this event
+	 * can change directly. Used by the event driven update mode of 
+	 * {@link World} to update only the affected hosts after the event.
+	 * @return Addresses of the affected hosts, or null if the event can
+	 * affect any host (i.e., all hosts should be updated)
+	 */
+	public int[] getAffectedHosts() {
+		return null; // dummy event is an update request for all hosts
+	}
+
 	/**
 	 * Returns the time when this event should happen.
 	 * @return Event's time
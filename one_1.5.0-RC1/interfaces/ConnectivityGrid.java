@@ -5,6 +5,7 @@
 package interfaces;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 
@@ -35,6 +36,11 @@ import core.World;
  * connectivity. 
  * </P>
  * <P>
+ * The interfaces of a cell keep the order in which they entered the cell,
+ * so removing an interface from a cell (e.g., when it moves to another
+ * cell) takes time linear to the number of interfaces in the cell.
+ * </P>
+ * <P>
  * <strong>Note:</strong> this class does NOT support negative
  * coordinates. Also, it makes sense to normalize the coordinates to start
  * from zero to conserve memory. 
@@ -53,10 +59,22 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	public static final String CELL_SIZE_MULT_S = "cellSizeMult";
 	/** default value for cell size multiplier ({@value}) */
 	public static final int DEF_CON_CELL_SIZE_MULT = 5;
+	/** how large array is initially chosen for a cell */
+	private static final int EXPECTED_INTERFACE_COUNT = 5;
 	
-	private GridCell[][] cells;
-	private HashMap<NetworkInterface, GridCell> ginterfaces;
+	/** interfaces in each cell (null for cells that have never had any).
+	 * The cells are indexed by {@link #cellIndex(int, int)} */
+	private NetworkInterface[][] cells;
+	/** locations of the interfaces in each cell (in the same order as in 
+	 * {@link #cells}) */
+	private GridLocation[][] cellLocations;
+	/** number of interfaces in each cell */
+	private int[] cellSizes;
+	/** the cell and the index in the cell of every interface */
+	private HashMap<NetworkInterface, GridLocation> ginterfaces;
 	private int cellSize;
+	/** maximum range of the radio technology using this grid */
+	private double maxRange;
 	private int rows;
 	private int cols;
 	private static int worldSizeX;
@@ -96,20 +114,19 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 * Creates a new overlay connectivity grid
 	 * @param cellSize Cell's edge's length (must be larger than the largest
 	 * 	radio coverage's diameter)
+	 * @param maxRange Maximum range used by the radio technology
 	 */
-	private ConnectivityGrid(int cellSize) {
+	private ConnectivityGrid(int cellSize, double maxRange) {
 		this.rows = worldSizeY/cellSize + 1;
 		this.cols = worldSizeX/cellSize + 1;
 		// leave empty cells on both sides to make neighbor search easier 
-		this.cells = new GridCell[rows+2][cols+2];
+		this.cells = new NetworkInterface[(rows+2) * (cols+2)][];
+		this.cellLocations = new GridLocation[(rows+2) * (cols+2)][];
+		this.cellSizes = new int[(rows+2) * (cols+2)];
 		this.cellSize = cellSize;
+		this.maxRange = maxRange;
 
-		for (int i=0; i<rows+2; i++) {
-			for (int j=0; j<cols+2; j++) {
-				this.cells[i][j] = new GridCell();
-			}
-		}
-		ginterfaces = new HashMap<NetworkInterface,GridCell>();
+		ginterfaces = new HashMap<NetworkInterface,GridLocation>();
 	}
 
 	/**
@@ -126,7 +143,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		} else {
 			ConnectivityGrid newgrid = 
 				new ConnectivityGrid((int)Math.ceil(maxRange * 
-						cellSizeMultiplier));
+						cellSizeMultiplier), maxRange);
 			gridobjects.put((Integer)key,newgrid);
 			return newgrid;
 		}
@@ -137,9 +154,9 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 * @param ni The new network interface
 	 */
 	public void addInterface(NetworkInterface ni) {
-		GridCell c = cellFromCoord(ni.getLocation());
-		c.addInterface(ni);
-		ginterfaces.put(ni,c);
+		GridLocation loc = new GridLocation();
+		addToCell(ni, cellFromCoord(ni.getLocation()), loc);
+		ginterfaces.put(ni,loc);
 	}
 
 	/** 
@@ -147,11 +164,10 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 * @param ni The interface to be removed
 	 */
 	public void removeInterface(NetworkInterface ni) {
-		GridCell c = ginterfaces.get(ni);
-		if (c != null) {
-			c.removeInterface(ni);
+		GridLocation loc = ginterfaces.remove(ni);
+		if (loc != null) {
+			removeFromCell(loc);
 		}
-		ginterfaces.remove(ni);
 	}
 
 	/**
@@ -169,48 +185,88 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 * @param ni The interface to update
 	 */
 	public void updateLocation(NetworkInterface ni) {
-		GridCell oldCell = (GridCell)ginterfaces.get(ni);
-		GridCell newCell = cellFromCoord(ni.getLocation());
+		GridLocation loc = ginterfaces.get(ni);
+		int newCell = cellFromCoord(ni.getLocation());
 
-		if (newCell != oldCell) {
-			oldCell.moveInterface(ni, newCell);
-			ginterfaces.put(ni,newCell);
+		if (newCell != loc.cell) {
+			removeFromCell(loc);
+			addToCell(ni, newCell, loc);
 		}
 	}
 
 	/**
-	 * Finds all neighboring cells and the cell itself based on the coordinates
-	 * @param c The coordinates
-	 * @return Array of neighboring cells 
+	 * Adds an interface as the last interface of a cell
+	 * @param ni The interface to add
+	 * @param cell Index of the cell
+	 * @param loc The location object of the interface to update
 	 */
-	private GridCell[] getNeighborCellsByCoord(Coord c) {
-		// +1 due empty cells on both sides of the matrix
-		int row = (int)(c.getY()/cellSize) + 1;
-		int col = (int)(c.getX()/cellSize) + 1;
-		return getNeighborCells(row,col);
+	private void addToCell(NetworkInterface ni, int cell, GridLocation loc) {
+		NetworkInterface[] members = this.cells[cell];
+		GridLocation[] locations = this.cellLocations[cell];
+		int size = this.cellSizes[cell];
+		
+		if (members == null) {
+			members = new NetworkInterface[EXPECTED_INTERFACE_COUNT];
+			locations = new GridLocation[EXPECTED_INTERFACE_COUNT];
+			this.cells[cell] = members;
+			this.cellLocations[cell] = locations;
+		}
+		else if (size == members.length) {
+			members = Arrays.copyOf(members, size * 2);
+			locations = Arrays.copyOf(locations, size * 2);
+			this.cells[cell] = members;
+			this.cellLocations[cell] = locations;
+		}
+		
+		members[size] = ni;
+		locations[size] = loc;
+		this.cellSizes[cell] = size + 1;
+		loc.cell = cell;
+		loc.index = size;
+	}
+
+	/**
+	 * Removes an interface from its cell. The interfaces after it are moved
+	 * one step back, so the other interfaces keep their order in the cell 
+	 * (the order in which near interfaces are visited, and thus the order
+	 * of connection events, depends on it). Takes time linear to the 
+	 * number of interfaces in the cell.
+	 * @param loc The location of the interface to remove
+	 */
+	private void removeFromCell(GridLocation loc) {
+		NetworkInterface[] members = this.cells[loc.cell];
+		GridLocation[] locations = this.cellLocations[loc.cell];
+		int last = this.cellSizes[loc.cell] - 1;
+
+		assert last >= 0 && loc.index <= last : "No interface at index " + 
+			loc.index + " of cell " + loc.cell;
+		
+		for (int i = loc.index; i < last; i++) {
+			members[i] = members[i + 1];
+			locations[i] = locations[i + 1];
+			locations[i].index = i;
+		}
+		members[last] = null;
+		locations[last] = null;
+		this.cellSizes[loc.cell] = last;
 	}
 
 	/**
-	 * Returns an array of Cells that contains the neighbors of a certain
-	 * cell and the cell itself.
-	 * @param row Row index of the cell
-	 * @param col Column index of the cell
-	 * @return Array of neighboring Cells
+	 * Returns the index of a cell in the cell arrays
+	 * @param row Row of the cell (including the empty border row)
+	 * @param col Column of the cell (including the empty border column)
+	 * @return The index of the cell
 	 */
-	private GridCell[] getNeighborCells(int row, int col) {
-		return new GridCell[] {
-			cells[row-1][col-1],cells[row-1][col],cells[row-1][col+1],//1st row
-			cells[row][col-1],cells[row][col],cells[row][col+1],//2nd row
-			cells[row+1][col-1],cells[row+1][col],cells[row+1][col+1]//3rd row
-		};
+	private int cellIndex(int row, int col) {
+		return row * (this.cols + 2) + col;
 	}
 
 	/**
 	 * Get the cell having the specific coordinates
 	 * @param c Coordinates
-	 * @return The cell
+	 * @return Index of the cell
 	 */
-	private GridCell cellFromCoord(Coord c) {
+	private int cellFromCoord(Coord c) {
 		// +1 due empty cells on both sides of the matrix
 		int row = (int)(c.getY()/cellSize) + 1; 
 		int col = (int)(c.getX()/cellSize) + 1;
@@ -218,7 +274,7 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 		assert row > 0 && row <= rows && col > 0 && col <= cols : "Location " + 
 		c + " is out of world's bounds";
 		
-		return this.cells[row][col];
+		return cellIndex(row, col);
 	}
 
 	/**
@@ -236,88 +292,129 @@ public class ConnectivityGrid extends ConnectivityOptimizer {
 	 */
 	public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface ni) {
-		ArrayList<NetworkInterface> niList = new ArrayList<NetworkInterface>();
-		GridCell loc = (GridCell)ginterfaces.get(ni);
-		
-		if (loc != null) {	
-			GridCell[] neighbors = 
-				getNeighborCellsByCoord(ni.getLocation());
-			for (int i=0; i < neighbors.length; i++) {
-				niList.addAll(neighbors[i].getInterfaces());
+		final ArrayList<NetworkInterface> niList = 
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(ni, new InterfaceVisitor() {
+			public void visit(NetworkInterface near) {
+				niList.add(near);
 			}
-		}
-		
+		});
 		return niList;
 	}
 
-
 	/**
-	 * Returns a string representation of the ConnectivityCells object
-	 * @return a string representation of the ConnectivityCells object
+	 * Calls the visitor for all interfaces that are "near" (i.e., in 
+	 * neighboring grid cells or in the same cell) the given interface.
+	 * Doesn't create any new objects.
+	 * @param ni The interface whose neighboring interfaces are visited
+	 * @param visitor The visitor to call for each near interface
 	 */
-	public String toString() {
-		return getClass().getSimpleName() + " of size " + 
-			this.cols + "x" + this.rows + ", cell size=" + this.cellSize;
+	@Override
+	public void visitNearInterfaces(NetworkInterface ni, 
+			InterfaceVisitor visitor) {
+		if (!ginterfaces.containsKey(ni)) {
+			return;
+		}
+		
+		Coord c = ni.getLocation();
+		// +1 due empty cells on both sides of the matrix
+		int row = (int)(c.getY()/cellSize) + 1;
+		int col = (int)(c.getX()/cellSize) + 1;
+		
+		for (int r = row - 1; r <= row + 1; r++) {
+			for (int cell = cellIndex(r, col - 1), last = cell + 2; 
+					cell <= last; cell++) {
+				NetworkInterface[] members = this.cells[cell];
+				for (int i=0, n = this.cellSizes[cell]; i < n; i++) {
+					visitor.visit(members[i]);
+				}
+			}
+		}
 	}
 
 	/**
-	 * A single cell in the cell grid. Contains the interfaces that are 
-	 * currently in that part of the grid.
+	 * Checks that the cells are big enough for the margin: the neighboring
+	 * cells cover at least the cell size in every direction, so the margin
+	 * is already included if the range and the margin together are not
+	 * longer than the cell size.
+	 * @param margin The distance (in addition to the range) within which
+	 * the interfaces must be considered near
+	 * @throws SettingsError if the cells are too small for the margin
 	 */
-	public class GridCell {
-		// how large array is initially chosen
-		private static final int EXPECTED_INTERFACE_COUNT = 5;
-		private ArrayList<NetworkInterface> interfaces;
-
-		private GridCell() {
-			this.interfaces = new ArrayList<NetworkInterface>(
-					EXPECTED_INTERFACE_COUNT);
-		}
-
-		/**
-		 * Returns a list of of interfaces in this cell
-		 * @return a list of of interfaces in this cell
-		 */
-		public ArrayList<NetworkInterface> getInterfaces() {
-			return this.interfaces;
+	@Override
+	public void setMovementMargin(double margin) {
+		if (this.maxRange + margin > this.cellSize) {
+			throw new SettingsError("Too small value (" + cellSizeMultiplier +
+					") for " + World.OPTIMIZATION_SETTINGS_NS + "." + 
+					CELL_SIZE_MULT_S + " for the movement margin of " + 
+					margin + "m; must be at least " + 
+					(int)Math.ceil((this.maxRange + margin) / this.maxRange));
 		}
+	}
 
-		/**
-		 * Adds an interface to this cell
-		 * @param ni The interface to add
-		 */
-		public void addInterface(NetworkInterface ni) {
-			this.interfaces.add(ni);
+	/**
+	 * Calls the visitor once for every pair of different interfaces that 
+	 * are in the same cell or in neighboring cells. Every cell is paired
+	 * only with its east, south-west, south and south-east neighbor 
+	 * (half of the neighborhood), so every pair of near interfaces is 
+	 * visited exactly once. Doesn't create any new objects.
+	 * @param visitor The visitor to call for each pair
+	 */
+	@Override
+	public void visitNearPairs(PairVisitor visitor) {
+		for (int row = 1; row <= rows; row++) {
+			for (int col = 1; col <= cols; col++) {
+				int cell = cellIndex(row, col);
+				int n = this.cellSizes[cell];
+				if (n == 0) {
+					continue;
+				}
+				NetworkInterface[] members = this.cells[cell];
+				for (int i=0; i < n; i++) {
+					NetworkInterface ni = members[i];
+					for (int j=i+1; j < n; j++) {
+						visitor.visit(ni, members[j]);
+					}
+					visitCell(ni, cellIndex(row, col + 1), visitor);
+					visitCell(ni, cellIndex(row + 1, col - 1), visitor);
+					visitCell(ni, cellIndex(row + 1, col), visitor);
+					visitCell(ni, cellIndex(row + 1, col + 1), visitor);
+				}
+			}
 		}
+	}
 
-		/**
-		 * Removes an interface from this cell
-		 * @param ni The interface to remove
-		 */
-		public void removeInterface(NetworkInterface ni) {
-			this.interfaces.remove(ni);
+	/**
+	 * Calls the visitor for the given interface paired with every 
+	 * interface of a cell
+	 * @param ni The first interface of all the pairs
+	 * @param cell Index of the cell
+	 * @param visitor The visitor to call
+	 */
+	private void visitCell(NetworkInterface ni, int cell, 
+			PairVisitor visitor) {
+		NetworkInterface[] members = this.cells[cell];
+		for (int i=0, n = this.cellSizes[cell]; i < n; i++) {
+			visitor.visit(ni, members[i]);
 		}
+	}
 
-		/**
-		 * Moves a interface in a Cell to another Cell
-		 * @param ni The interface to move
-		 * @param to The cell where the interface should be moved to
-		 */
-		public void moveInterface(NetworkInterface ni, GridCell to) {
-			to.addInterface(ni);
-			boolean removeOk = this.interfaces.remove(ni); 
-			assert removeOk : "interface " + ni + 
-				" not found from cell with " + interfaces.toString();
-		}
+	/**
+	 * Returns a string representation of the ConnectivityCells object
+	 * @return a string representation of the ConnectivityCells object
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of size " + 
+			this.cols + "x" + this.rows + ", cell size=" + this.cellSize;
+	}
 
-		/**
-		 * Returns a string representation of the cell
-		 * @return a string representation of the cell
-		 */
-		public String toString() {
-			return getClass().getSimpleName() + " with " + 
-				this.interfaces.size() + " interfaces :" + this.interfaces;
-		}
+	/**
+	 * Location of an interface in the grid: the index of the cell and the 
+	 * index of the interface in the cell's array.
+	 */
+	private static class GridLocation {
+		private int cell;
+		private int index;
 	}
 	
 }
\ No newline at end of file
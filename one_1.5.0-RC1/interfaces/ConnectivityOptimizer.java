@@ -5,14 +5,62 @@
 package interfaces;
 
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import core.NetworkInterface;
+import core.Settings;
+import core.SettingsError;
+import core.World;
 
 /**
  * A superclass for schemes for optimizing the location of possible contacts
  * with network interfaces of a specific range
  */
 abstract public class ConnectivityOptimizer {
+	/**
+	 * Connectivity optimizer -setting id ({@value}). Used in 
+	 * {@link World#OPTIMIZATION_SETTINGS_NS} name space. Name of the 
+	 * optimizer class: {@link #GRID_OPTIMIZER} or 
+	 * {@link #QUADTREE_OPTIMIZER}. Default value is {@link #DEF_OPTIMIZER}.
+	 */
+	public static final String OPTIMIZER_S = "connectivityOptimizer";
+	/** name of the {@link ConnectivityGrid} optimizer ({@value}) */
+	public static final String GRID_OPTIMIZER = "ConnectivityGrid";
+	/** name of the {@link ConnectivityQuadTree} optimizer ({@value}) */
+	public static final String QUADTREE_OPTIMIZER = "ConnectivityQuadTree";
+	/** default value for the connectivity optimizer ({@value}) */
+	public static final String DEF_OPTIMIZER = GRID_OPTIMIZER;
+
+	/**
+	 * Returns the connectivity optimizer object (of the class defined by 
+	 * the {@link #OPTIMIZER_S} setting) based on a hash value
+	 * @param key A hash value that separates different interfaces from each 
+	 * other
+	 * @param maxRange Maximum range used by the radio technology using this 
+	 *  optimizer. 
+	 * @return The connectivity optimizer object for a specific interface
+	 * @throws SettingsError if the optimizer setting has an unknown value
+	 */
+	public static ConnectivityOptimizer ConnectivityOptimizerFactory(int key,
+			double maxRange) {
+		Settings s = new Settings(World.OPTIMIZATION_SETTINGS_NS);
+		String type = s.getSetting(OPTIMIZER_S, DEF_OPTIMIZER);
+		
+		if (type.equals(GRID_OPTIMIZER)) {
+			return ConnectivityGrid.ConnectivityGridFactory(key, maxRange);
+		}
+		else if (type.equals(QUADTREE_OPTIMIZER)) {
+			return ConnectivityQuadTree.ConnectivityQuadTreeFactory(key, 
+					maxRange);
+		}
+		else {
+			throw new SettingsError("Unknown connectivity optimizer '" + 
+					type + "' for " + World.OPTIMIZATION_SETTINGS_NS + "." + 
+					OPTIMIZER_S);
+		}
+	}
+
 
 	/**
 	 * Adds a network interface to the optimizer (unless it is already present)
@@ -40,9 +88,91 @@ abstract public class ConnectivityOptimizer {
 	abstract public Collection<NetworkInterface> getNearInterfaces(
 			NetworkInterface ni);
 
+	/**
+	 * Calls the visitor for all network interfaces that might be located so
+	 * that they can be connected with the network interface (i.e., for
+	 * the same interfaces that {@link #getNearInterfaces(NetworkInterface)}
+	 * returns and in the same order). The optimizer must not be updated
+	 * while visiting. This implementation uses getNearInterfaces but
+	 * subclasses should override this with a version that doesn't
+	 * create any new objects.
+	 * @param ni network interface that needs to be connected
+	 * @param visitor The visitor to call for each near interface
+	 */
+	public void visitNearInterfaces(NetworkInterface ni, 
+			InterfaceVisitor visitor) {
+		for (NetworkInterface near : getNearInterfaces(ni)) {
+			visitor.visit(near);
+		}
+	}
+
+	/**
+	 * Calls the visitor once for every unordered pair of different network 
+	 * interfaces that might be located so that they can be connected with 
+	 * each other. The optimizer must not be updated while visiting. This
+	 * implementation uses {@link #getAllInterfaces()} and
+	 * {@link #getNearInterfaces(NetworkInterface)} but subclasses should 
+	 * override this with a version that doesn't check the pairs twice.
+	 * @param visitor The visitor to call for each pair
+	 */
+	public void visitNearPairs(PairVisitor visitor) {
+		Map<NetworkInterface, Integer> order = 
+			new IdentityHashMap<NetworkInterface, Integer>();
+		for (NetworkInterface ni : getAllInterfaces()) {
+			order.put(ni, order.size());
+		}
+		for (NetworkInterface ni : getAllInterfaces()) {
+			int index = order.get(ni);
+			for (NetworkInterface near : getNearInterfaces(ni)) {
+				Integer nearIndex = order.get(near);
+				if (nearIndex != null && nearIndex > index) {
+					visitor.visit(ni, near);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes sure that the near interfaces include also the interfaces that
+	 * are farther away than the radio range by at most the given margin
+	 * (e.g., the interfaces that can get within range while the hosts
+	 * move during an update interval)
+	 * @param margin The distance (in addition to the range) within which
+	 * the interfaces must be considered near
+	 * @throws SettingsError if the optimizer's settings don't allow such
+	 * a margin
+	 */
+	abstract public void setMovementMargin(double margin);
+
 	/**
 	 * Finds all other interfaces that are registered to the
 	 * ConnectivityOptimizer
 	 */
 	abstract public Collection<NetworkInterface> getAllInterfaces();
+
+	/**
+	 * Interface for the visitors of 
+	 * {@link ConnectivityOptimizer#visitNearInterfaces(NetworkInterface, 
+	 * InterfaceVisitor)}
+	 */
+	public interface InterfaceVisitor {
+		/**
+		 * Method that is called for every visited interface
+		 * @param ni The visited interface
+		 */
+		public void visit(NetworkInterface ni);
+	}
+
+	/**
+	 * Interface for the visitors of 
+	 * {@link ConnectivityOptimizer#visitNearPairs(PairVisitor)}
+	 */
+	public interface PairVisitor {
+		/**
+		 * Method that is called for every visited pair of interfaces
+		 * @param ni1 The first interface of the pair
+		 * @param ni2 The second interface of the pair
+		 */
+		public void visit(NetworkInterface ni1, NetworkInterface ni2);
+	}
 }
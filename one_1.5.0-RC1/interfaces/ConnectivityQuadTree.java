@@ -0,0 +1,520 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package interfaces;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import movement.MovementModel;
+
+import core.Coord;
+import core.DTNSim;
+import core.NetworkInterface;
+import core.Settings;
+import core.SettingsError;
+import core.World;
+
+/**
+ * <P>
+ * Adaptive alternative for the {@link ConnectivityGrid}. The interfaces are
+ * stored in a quadtree that covers the whole world: a node of the tree is
+ * split into four quadrants when it gets more interfaces than fit in a
+ * leaf, and the quadrants are merged back when most of the interfaces
+ * have left them. Hence dense areas (e.g., city centers with clustered
+ * movement) are covered by small nodes and sparse areas by large ones,
+ * and empty parts of the world don't use any memory.</P>
+ *
+ * <P>The near interfaces of an interface are the ones within a square whose
+ * half edge is the maximum range of the radio technology (given when the
+ * tree is created) plus the movement margin (see
+ * {@link #setMovementMargin(double)}; zero by default). Unlike with the 
+ * grid, interfaces whose range grows bigger than that during the 
+ * simulation may miss contacts.</P>
+ *
+ * <P>Select with {@link ConnectivityOptimizer#OPTIMIZER_S} setting.</P>
+ */
+public class ConnectivityQuadTree extends ConnectivityOptimizer {
+
+	/**
+	 * Maximum number of interfaces in a leaf node -setting id ({@value}).
+	 * Used in {@link World#OPTIMIZATION_SETTINGS_NS} name space.
+	 * Nodes whose edge is not longer than twice the range of the radio are 
+	 * not split even if they have more interfaces.
+	 * Default value is {@link #DEF_LEAF_CAPACITY}.
+	 * Smallest accepted value is 2.
+	 */
+	public static final String LEAF_CAPACITY_S = "quadTreeLeafCapacity";
+	/** default value for leaf capacity ({@value}) */
+	public static final int DEF_LEAF_CAPACITY = 8;
+	/** how large array is initially chosen for a leaf */
+	private static final int EXPECTED_INTERFACE_COUNT = 5;
+
+	private Node root;
+	private HashMap<NetworkInterface, TreeLocation> tinterfaces;
+	/** maximum range of the radio technology */
+	private double range;
+	/** half of the edge of the square where the near interfaces are */
+	private double reach;
+	/** nodes smaller than this are not split */
+	private double minSplitSize;
+	/** running number for the interfaces added to the tree */
+	private int nextOrder;
+	/** visitor used by {@link #visitNearPairs(PairVisitor)} */
+	private PairFinder pairFinder;
+
+	private static int worldSize;
+	private static int leafCapacity;
+
+	static HashMap<Integer,ConnectivityQuadTree> treeobjects;
+
+	static {
+		DTNSim.registerForReset(ConnectivityQuadTree.class.getCanonicalName());
+		reset();
+	}
+
+	public static void reset() {
+		treeobjects = new HashMap<Integer, ConnectivityQuadTree>();
+
+		Settings s = new Settings(MovementModel.MOVEMENT_MODEL_NS);
+		int [] worldSize = s.getCsvInts(MovementModel.WORLD_SIZE,2);
+		ConnectivityQuadTree.worldSize = Math.max(worldSize[0], worldSize[1]);
+
+		s.setNameSpace(World.OPTIMIZATION_SETTINGS_NS);
+		leafCapacity = s.getInt(LEAF_CAPACITY_S, DEF_LEAF_CAPACITY);
+		if (leafCapacity < 2) {
+			throw new SettingsError("Too small value (" + leafCapacity +
+					") for " + World.OPTIMIZATION_SETTINGS_NS +
+					"." + LEAF_CAPACITY_S);
+		}
+	}
+
+	/**
+	 * Creates a new quadtree that covers the whole world
+	 * @param range Maximum range of the radio technology
+	 */
+	private ConnectivityQuadTree(double range) {
+		this.range = range;
+		this.reach = range;
+		this.minSplitSize = 2 * range;
+		// +1 so that the locations at the world's edges are inside the root
+		this.root = new Node(null, 0, 0, worldSize + 1);
+		this.tinterfaces = new HashMap<NetworkInterface, TreeLocation>();
+		this.pairFinder = new PairFinder();
+	}
+
+	/**
+	 * Returns a connectivity quadtree object based on a hash value
+	 * @param key A hash value that separates different interfaces from each other
+	 * @param maxRange Maximum range used by the radio technology using this
+	 *  quadtree.
+	 * @return The connectivity quadtree object for a specific interface
+	 */
+	public static ConnectivityQuadTree ConnectivityQuadTreeFactory(int key,
+			double maxRange) {
+		if (treeobjects.containsKey((Integer)key)) {
+			return treeobjects.get((Integer)key);
+		} else {
+			ConnectivityQuadTree newtree = new ConnectivityQuadTree(maxRange);
+			treeobjects.put((Integer)key,newtree);
+			return newtree;
+		}
+	}
+
+	/**
+	 * Adds a network interface to the quadtree
+	 * @param ni The new network interface
+	 */
+	public void addInterface(NetworkInterface ni) {
+		TreeLocation loc = new TreeLocation();
+		loc.order = nextOrder++;
+		tinterfaces.put(ni, loc);
+		insert(ni, loc);
+	}
+
+	/**
+	 * Removes a network interface from the quadtree
+	 * @param ni The interface to be removed
+	 */
+	public void removeInterface(NetworkInterface ni) {
+		TreeLocation loc = tinterfaces.remove(ni);
+		if (loc != null) {
+			remove(loc);
+		}
+	}
+
+	/**
+	 * Adds interfaces to the quadtree
+	 * @param interfaces Collection of interfaces to add
+	 */
+	public void addInterfaces(Collection<NetworkInterface> interfaces) {
+		for (NetworkInterface n : interfaces) {
+			addInterface(n);
+		}
+	}
+
+	/**
+	 * Checks and updates (if necessary) interface's position in the tree
+	 * @param ni The interface to update
+	 */
+	public void updateLocation(NetworkInterface ni) {
+		TreeLocation loc = tinterfaces.get(ni);
+		Coord c = ni.getLocation();
+
+		if (!loc.leaf.contains(c.getX(), c.getY())) {
+			remove(loc);
+			insert(ni, loc);
+		}
+	}
+
+	/**
+	 * Returns all interfaces that use the same technology and channel
+	 */
+	public Collection<NetworkInterface> getAllInterfaces() {
+		return (Collection<NetworkInterface>)tinterfaces.keySet();
+	}
+
+	/**
+	 * Returns all interfaces that are "near" (i.e., within the range
+	 * square) and use the same technology and channel as the given interface
+	 * @param ni The interface whose neighboring interfaces are returned
+	 * @return List of near interfaces
+	 */
+	public Collection<NetworkInterface> getNearInterfaces(
+			NetworkInterface ni) {
+		final ArrayList<NetworkInterface> niList =
+			new ArrayList<NetworkInterface>();
+		visitNearInterfaces(ni, new InterfaceVisitor() {
+			public void visit(NetworkInterface near) {
+				niList.add(near);
+			}
+		});
+		return niList;
+	}
+
+	/**
+	 * Calls the visitor for all interfaces that are "near" (i.e., within
+	 * the range square) the given interface. The interface itself is also
+	 * visited. Doesn't create any new objects.
+	 * @param ni The interface whose neighboring interfaces are visited
+	 * @param visitor The visitor to call for each near interface
+	 */
+	@Override
+	public void visitNearInterfaces(NetworkInterface ni,
+			InterfaceVisitor visitor) {
+		if (!tinterfaces.containsKey(ni)) {
+			return;
+		}
+
+		Coord c = ni.getLocation();
+		visitNear(root, c.getX(), c.getY(), visitor);
+	}
+
+	/**
+	 * Extends the square where the near interfaces are by the margin
+	 * @param margin The distance (in addition to the range) within which
+	 * the interfaces must be considered near
+	 */
+	@Override
+	public void setMovementMargin(double margin) {
+		this.reach = this.range + margin;
+	}
+
+	/**
+	 * Calls the visitor once for every pair of different interfaces that
+	 * are near each other. Doesn't create any new objects.
+	 * @param visitor The visitor to call for each pair
+	 */
+	@Override
+	public void visitNearPairs(PairVisitor visitor) {
+		this.pairFinder.visitor = visitor;
+		visitPairs(root);
+		this.pairFinder.visitor = null;
+	}
+
+	/**
+	 * Goes through all the interfaces in a (sub)tree and visits the pairs
+	 * they form with the near interfaces that come after them (see
+	 * {@link PairFinder})
+	 * @param node The root of the (sub)tree
+	 */
+	private void visitPairs(Node node) {
+		if (node.children != null) {
+			for (int i=0; i < 4; i++) {
+				visitPairs(node.children[i]);
+			}
+			return;
+		}
+
+		for (int i=0; i < node.nrofMembers; i++) {
+			NetworkInterface ni = node.members[i];
+			Coord c = ni.getLocation();
+			pairFinder.first = ni;
+			pairFinder.location = c;
+			visitNear(root, c.getX(), c.getY(), pairFinder);
+		}
+		pairFinder.first = null;
+		pairFinder.location = null;
+	}
+
+	/**
+	 * Calls the visitor for all the interfaces in a (sub)tree that are
+	 * within the range square of the given location
+	 * @param node The root of the (sub)tree
+	 * @param x The X coordinate of the location
+	 * @param y The Y coordinate of the location
+	 * @param visitor The visitor to call
+	 */
+	private void visitNear(Node node, double x, double y,
+			InterfaceVisitor visitor) {
+		if (node.count == 0 || x + reach < node.x || 
+				x - reach >= node.x + node.edge || y + reach < node.y ||
+				y - reach >= node.y + node.edge) {
+			return;
+		}
+
+		if (node.children != null) {
+			for (int i=0; i < 4; i++) {
+				visitNear(node.children[i], x, y, visitor);
+			}
+			return;
+		}
+
+		for (int i=0; i < node.nrofMembers; i++) {
+			Coord c = node.members[i].getLocation();
+			if (Math.abs(c.getX() - x) <= reach &&
+					Math.abs(c.getY() - y) <= reach) {
+				visitor.visit(node.members[i]);
+			}
+		}
+	}
+
+	/**
+	 * Inserts an interface to the leaf that covers its location and splits
+	 * the leaf if it gets too full
+	 * @param ni The interface to insert
+	 * @param loc The location object of the interface to update
+	 */
+	private void insert(NetworkInterface ni, TreeLocation loc) {
+		Coord c = ni.getLocation();
+		double x = c.getX();
+		double y = c.getY();
+
+		assert root.contains(x, y) : "Location " + c +
+			" is out of world's bounds";
+
+		Node node = root;
+		while (node.children != null) {
+			node.count++;
+			node = node.childFor(x, y);
+		}
+		node.add(ni, loc);
+
+		if (node.nrofMembers > leafCapacity && node.edge > minSplitSize) {
+			split(node);
+		}
+	}
+
+	/**
+	 * Removes an interface from its leaf and merges the nodes that have
+	 * only few interfaces left
+	 * @param loc The location of the interface to remove
+	 */
+	private void remove(TreeLocation loc) {
+		Node leaf = loc.leaf;
+		int last = leaf.nrofMembers - 1;
+
+		assert last >= 0 && loc.index <= last : "No interface at index " +
+			loc.index + " of leaf with " + leaf.nrofMembers + " interfaces";
+
+		if (loc.index != last) {
+			NetworkInterface moved = leaf.members[last];
+			leaf.members[loc.index] = moved;
+			tinterfaces.get(moved).index = loc.index;
+		}
+		leaf.members[last] = null;
+		leaf.nrofMembers = last;
+		leaf.count--;
+
+		Node mergeNode = null;
+		for (Node node = leaf.parent; node != null; node = node.parent) {
+			node.count--;
+			if (node.count <= leafCapacity / 2) {
+				mergeNode = node;
+			}
+		}
+		if (mergeNode != null) {
+			merge(mergeNode);
+		}
+	}
+
+	/**
+	 * Splits a leaf to four children and moves its interfaces to them
+	 * @param leaf The leaf to split
+	 */
+	private void split(Node leaf) {
+		double half = leaf.edge / 2;
+		leaf.children = new Node[] {
+				new Node(leaf, leaf.x, leaf.y, half),
+				new Node(leaf, leaf.x + half, leaf.y, half),
+				new Node(leaf, leaf.x, leaf.y + half, half),
+				new Node(leaf, leaf.x + half, leaf.y + half, half)
+		};
+
+		NetworkInterface[] members = leaf.members;
+		int n = leaf.nrofMembers;
+		leaf.members = null;
+		leaf.nrofMembers = 0;
+
+		for (int i=0; i < n; i++) {
+			Coord c = members[i].getLocation();
+			leaf.childFor(c.getX(), c.getY()).add(members[i],
+					tinterfaces.get(members[i]));
+		}
+	}
+
+	/**
+	 * Moves all the interfaces of a subtree to the root of the subtree and
+	 * makes the root a leaf
+	 * @param node The root of the subtree
+	 */
+	private void merge(Node node) {
+		Node[] children = node.children;
+		node.children = null;
+		node.count = 0;
+		node.nrofMembers = 0;
+		for (int i=0; i < 4; i++) {
+			moveAll(children[i], node);
+		}
+	}
+
+	/**
+	 * Moves all the interfaces of a subtree to a leaf
+	 * @param from The root of the subtree
+	 * @param to The leaf
+	 */
+	private void moveAll(Node from, Node to) {
+		if (from.children != null) {
+			for (int i=0; i < 4; i++) {
+				moveAll(from.children[i], to);
+			}
+			return;
+		}
+		for (int i=0; i < from.nrofMembers; i++) {
+			to.add(from.members[i], tinterfaces.get(from.members[i]));
+		}
+	}
+
+	/**
+	 * Returns a string representation of the ConnectivityQuadTree object
+	 * @return a string representation of the ConnectivityQuadTree object
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of size " +
+			this.root.edge + "x" + this.root.edge + ", range=" + this.range +
+			", leaf capacity=" + leafCapacity;
+	}
+
+	/**
+	 * Visitor that finds the pairs for one interface at time. To visit 
+	 * every pair only once, the first interface is paired only with the 
+	 * near interfaces that come after it in the order of the X and Y 
+	 * coordinates (and the order of addition if they are at the same
+	 * location).
+	 */
+	private class PairFinder implements InterfaceVisitor {
+		private PairVisitor visitor;
+		private NetworkInterface first;
+		private Coord location;
+
+		public void visit(NetworkInterface ni) {
+			if (ni == first) {
+				return;
+			}
+			Coord c = ni.getLocation();
+			if (c.getX() > location.getX() || (c.getX() == location.getX() &&
+					(c.getY() > location.getY() || 
+					(c.getY() == location.getY() && 
+					tinterfaces.get(ni).order > tinterfaces.get(first).order)))) {
+				visitor.visit(first, ni);
+			}
+		}
+	}
+
+	/**
+	 * A square node of the tree. Leaves contain the interfaces that are
+	 * currently in that part of the world.
+	 */
+	private static class Node {
+		private Node parent;
+		/** the four quadrants or null for leaves */
+		private Node[] children;
+		private double x;
+		private double y;
+		/** length of the node's edge */
+		private double edge;
+		/** interfaces in a leaf (null if there has never been any) */
+		private NetworkInterface[] members;
+		/** number of interfaces in a leaf */
+		private int nrofMembers;
+		/** number of interfaces in the whole subtree */
+		private int count;
+
+		private Node(Node parent, double x, double y, double edge) {
+			this.parent = parent;
+			this.x = x;
+			this.y = y;
+			this.edge = edge;
+		}
+
+		/**
+		 * Returns true if the location is inside this node
+		 */
+		private boolean contains(double x, double y) {
+			return x >= this.x && x < this.x + edge &&
+				y >= this.y && y < this.y + edge;
+		}
+
+		/**
+		 * Returns the child whose quadrant the location is in
+		 */
+		private Node childFor(double x, double y) {
+			double half = edge / 2;
+			return children[(x >= this.x + half ? 1 : 0) +
+			                (y >= this.y + half ? 2 : 0)];
+		}
+
+		/**
+		 * Adds an interface as the last interface of this leaf
+		 * @param ni The interface to add
+		 * @param loc The location object of the interface to update
+		 */
+		private void add(NetworkInterface ni, TreeLocation loc) {
+			if (members == null) {
+				members = new NetworkInterface[EXPECTED_INTERFACE_COUNT];
+			}
+			else if (nrofMembers == members.length) {
+				members = Arrays.copyOf(members, nrofMembers * 2);
+			}
+			members[nrofMembers] = ni;
+			loc.leaf = this;
+			loc.index = nrofMembers;
+			nrofMembers++;
+			count++;
+		}
+	}
+
+	/**
+	 * Location of an interface in the tree: the leaf, the index of the
+	 * interface in the leaf's array and the order number of the interface.
+	 */
+	private static class TreeLocation {
+		private Node leaf;
+		private int index;
+		private int order;
+	}
+
+}
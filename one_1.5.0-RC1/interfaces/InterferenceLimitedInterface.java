@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.Connection;
 import core.NetworkInterface;
 import core.Settings;
@@ -61,9 +59,9 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 	public void connect(NetworkInterface anotherInterface) {
 		if (isScanning() 
 				&& anotherInterface.getHost().isRadioActive()
-				&& isWithinRange(anotherInterface)
-				&& !isConnected(anotherInterface) 
-				&& (this != anotherInterface)) {
+				&& (this != anotherInterface)
+				&& !isConnected(anotherInterface)
+				&& isWithinRange(anotherInterface)) {
 			// new contact within range
 
 			Connection con = new VBRConnection(this.host, this,
@@ -98,10 +96,7 @@ public class InterferenceLimitedInterface extends NetworkInterface {
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces = 
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) 
-			connect(i);
+		connectToNearInterfaces();
 
 		// Find the current number of transmissions
 		// (to calculate the current transmission speed
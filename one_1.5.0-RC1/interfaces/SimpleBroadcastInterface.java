@@ -4,8 +4,6 @@
  */
 package interfaces;
 
-import java.util.Collection;
-
 import core.CBRConnection;
 import core.Connection;
 import core.NetworkInterface;
@@ -44,9 +42,9 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 	public void connect(NetworkInterface anotherInterface) {
 		if (isScanning()  
 				&& anotherInterface.getHost().isRadioActive() 
-				&& isWithinRange(anotherInterface) 
+				&& (this != anotherInterface)
 				&& !isConnected(anotherInterface)
-				&& (this != anotherInterface)) {
+				&& isWithinRange(anotherInterface)) {
 			// new contact within range
 			// connection speed is the lower one of the two speeds 
 			int conSpeed = anotherInterface.getTransmitSpeed();
@@ -87,11 +85,7 @@ public class SimpleBroadcastInterface extends NetworkInterface {
 			}
 		}
 		// Then find new possible connections
-		Collection<NetworkInterface> interfaces =
-			optimizer.getNearInterfaces(this);
-		for (NetworkInterface i : interfaces) {
-			connect(i);
-		}
+		connectToNearInterfaces();
 	}
 
 	/** 
@@ -162,6 +162,11 @@ public class BusTravellerMovement extends MapBasedMovement implements
 		return 0;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return false; /* shares the bus control system */
+	}
+	
 	@Override
 	public MapBasedMovement replicate() {
 		return new BusTravellerMovement(this);
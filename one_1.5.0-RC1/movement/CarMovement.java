@@ -77,4 +77,10 @@ public class CarMovement extends MapBasedMovement implements
 	public boolean isReady() {
 		return true;
 	}
+	
+	@Override
+	public boolean isParallelSafe() {
+		return false; /* shares the path finder with the prototype */
+	}
+
 }
@@ -222,6 +222,11 @@ public class EveningActivityMovement extends MapBasedMovement
 		}
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return false; /* shares the activity control system */
+	}
+	
 	@Override
 	public MapBasedMovement replicate() {
 		return new EveningActivityMovement(this);
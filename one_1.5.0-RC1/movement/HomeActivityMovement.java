@@ -212,6 +212,11 @@ public class HomeActivityMovement extends MapBasedMovement
 		}
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return false; /* shares the path finder with the prototype */
+	}
+	
 	@Override
 	public MapBasedMovement replicate() {
 		return new HomeActivityMovement(this);
@@ -94,7 +94,8 @@ public class MapRouteMovement extends MapBasedMovement implements
 			this.route.setNextIndex(this.firstStopIndex);
 		}
 		
-		this.pathFinder = proto.pathFinder;
+		/* own path finder (it has search state) for parallel movement */
+		this.pathFinder = new DijkstraPathFinder(getOkMapNodeTypes());
 		
 		proto.nextRouteIndex++; // give routes in order
 		if (proto.nextRouteIndex >= proto.allRoutes.size()) {
@@ -15,6 +15,7 @@ import core.ModuleCommunicationBus;
 import core.Settings;
 import core.SimClock;
 import core.SimError;
+import core.World;
 
 /**
  * <P>Superclass for all movement models. All subclasses must contain at least a 
@@ -44,9 +45,27 @@ public abstract class MovementModel {
 	public static final String WORLD_SIZE = "worldSize";
 	/** movement models' rng seed -setting id ({@value})*/
 	public static final String RNG_SEED = "rngSeed";
+	/**
+	 * Should every host's movement model use its own random number stream
+	 * -setting id ({@value}). Boolean. If true, the streams are seeded
+	 * using the {@link #RNG_SEED} and host's address, so the draws of a host
+	 * don't depend on the order the other hosts are moved in. Default is
+	 * true if parallel movement is enabled (see 
+	 * {@link World#MOVEMENT_THREADS_S}) and false otherwise. Parallel 
+	 * movement can't be used with the shared rng (false value).
+	 */
+	public static final String RNG_PER_HOST_S = "rngPerHost";
 	
 	/** common rng for all movement models in the simulation */
-	protected static Random rng; 
+	private static Random sharedRng;
+	/** seed of the movement model rng(s) */
+	private static int rngSeed;
+	/** should every host have its own rng */
+	private static boolean rngPerHost;
+	
+	/** rng of this movement model; either the common rng or, if host 
+	 * specific rngs are used, the host's own rng */
+	protected Random rng; 
 	
 	/** DTNHost to which this movement model is attached */
 	protected DTNHost host;
@@ -93,6 +112,7 @@ public abstract class MovementModel {
 	 */
 	public MovementModel() {
 		super();
+		this.rng = sharedRng;
 	}
 	
 	/**
@@ -104,6 +124,7 @@ public abstract class MovementModel {
 		double[] times;
 		
 		ah = new ActivenessHandler(settings);
+		this.rng = sharedRng;
 		
 		if (settings.contains(SPEED)) {
 			speeds = settings.getCsvDoubles(SPEED, 2);
@@ -148,6 +169,7 @@ public abstract class MovementModel {
 		this.maxX = mm.maxX;
 		this.maxY = mm.maxY;
 		this.ah = mm.ah;
+		this.rng = mm.rng;
 		this.comBus = null;
 	}
 		
@@ -167,6 +189,14 @@ public abstract class MovementModel {
 		return this.maxY;
 	}
 
+	/**
+	 * Returns the maximum speed of the {@link #SPEED} setting
+	 * @return The maximum speed
+	 */
+	public double getMaxSpeed() {
+		return this.maxSpeed;
+	}
+
 	
 	/**
 	 * Generates and returns a speed value between min and max of the 
@@ -217,10 +247,39 @@ public abstract class MovementModel {
 	}
 
 	/**
+	 * Returns true if every host's movement model uses its own rng
+	 * (see {@link #RNG_PER_HOST_S})
+	 * @return True if host specific rngs are used
+	 */
+	public static boolean isRngPerHost() {
+		return rngPerHost;
+	}
+
+	/**
+	 * Sets the host of this movement model. If host specific rngs are used,
+	 * also the rng of this model is (re)seeded for the host.
 	 * @param host the host to set
 	 */
 	public void setHost(DTNHost host) {
 		this.host = host;
+		if (rngPerHost) {
+			this.rng = new Random(rngSeed ^ 
+					(host.getAddress() * 0x9E3779B97F4A7C15L));
+		}
+	}
+
+	/**
+	 * Returns true if the paths of this movement model can be requested
+	 * concurrently with the paths of other hosts' movement models, i.e., 
+	 * the model doesn't share any mutable state with the other replicates
+	 * (except the rng, if host specific rngs are not used). Used by the 
+	 * parallel movement of {@link World}. This implementation returns 
+	 * false; subclasses that are safe to move in parallel should override
+	 * this.
+	 * @return True if the model can be moved in parallel with others
+	 */
+	public boolean isParallelSafe() {
+		return false;
 	}
 
 	/**
@@ -277,12 +336,17 @@ public abstract class MovementModel {
 	public static void reset() {
 		Settings s = new Settings(MOVEMENT_MODEL_NS);
 		if (s.contains(RNG_SEED)) {
-			int seed = s.getInt(RNG_SEED);
-			rng = new Random(seed);
+			rngSeed = s.getInt(RNG_SEED);
 		}
 		else {
-			rng = new Random(0);
+			rngSeed = 0;
 		}
+		sharedRng = new Random(rngSeed);
+		
+		Settings os = new Settings(World.OPTIMIZATION_SETTINGS_NS);
+		boolean parallel = os.getInt(World.MOVEMENT_THREADS_S, 
+				World.DEF_MOVEMENT_THREADS) > 1;
+		rngPerHost = s.getBoolean(RNG_PER_HOST_S, parallel);
 	}
 	
 }
@@ -247,6 +247,11 @@ public class OfficeActivityMovement extends MapBasedMovement implements
 		return waitTime;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return false; /* shares the path finder and Pareto rng */
+	}
+	
 	@Override
 	public MapBasedMovement replicate() {
 		return new OfficeActivityMovement(this);
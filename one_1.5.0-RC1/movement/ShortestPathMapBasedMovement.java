@@ -9,6 +9,7 @@ import java.util.List;
 import movement.map.DijkstraPathFinder;
 import movement.map.MapNode;
 import movement.map.PointsOfInterest;
+import core.DTNHost;
 import core.Settings;
 
 /**
@@ -41,10 +42,22 @@ public class ShortestPathMapBasedMovement extends MapBasedMovement implements
 	 */
 	protected ShortestPathMapBasedMovement(ShortestPathMapBasedMovement mbm) {
 		super(mbm);
-		this.pathFinder = mbm.pathFinder;
+		/* own path finder (it has search state) for parallel movement */
+		this.pathFinder = new DijkstraPathFinder(getOkMapNodeTypes());
 		this.pois = mbm.pois;
 	}
 	
+	/**
+	 * Sets the host of this movement model and makes the POI selection use
+	 * the (possibly host specific) rng of this model.
+	 * @param host the host to set
+	 */
+	@Override
+	public void setHost(DTNHost host) {
+		super.setHost(host);
+		this.pois = new PointsOfInterest(this.pois, rng);
+	}
+	
 	@Override
 	public Path getPath() {
 		Path p = new Path(generateSpeed());
@@ -62,6 +62,11 @@ public class StationaryMovement extends MovementModel {
 		return Double.MAX_VALUE;	// no new paths available
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public StationaryMovement replicate() {
 		return new StationaryMovement(this);
@@ -67,6 +67,20 @@ public class PointsOfInterest {
 		readPois(settings);
 	}
 	
+	/**
+	 * Copy constructor. The new instance shares the POIs with the prototype
+	 * but selects the destinations using the given rng.
+	 * @param proto The prototype to copy the POIs from
+	 * @param rng The random number generator to use
+	 */
+	public PointsOfInterest(PointsOfInterest proto, Random rng) {
+		this.poiLists = proto.poiLists;
+		this.poiProbs = proto.poiProbs;
+		this.map = proto.map;
+		this.okMapNodeTypes = proto.okMapNodeTypes;
+		this.rng = rng;
+	}
+	
 	/**
 	 * Selects a random destination from POIs or all MapNodes. Selecting among
 	 * POI groups is done by their probabilities. If sum of their probabilities
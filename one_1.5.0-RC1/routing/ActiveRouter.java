@@ -7,9 +7,10 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
 
+import routing.util.DropPolicyIndex;
 import routing.util.EnergyModel;
 import routing.util.MessageTransferAcceptPolicy;
 import routing.util.RoutingInfo;
@@ -21,6 +22,7 @@ import core.Message;
 import core.MessageListener;
 import core.NetworkInterface;
 import core.Settings;
+import core.SettingsError;
 import core.SimClock;
 
 /**
@@ -33,6 +35,17 @@ public abstract class ActiveRouter extends MessageRouter {
 	 * If set to true and final recipient of a message rejects it because it
 	 * already has it, the message is deleted from buffer. Default=false. */
 	public static final String DELETE_DELIVERED_S = "deleteDelivered";
+	/** Drop policy -setting id ({@value}). String. Defines which messages
+	 * are dropped first when there's not enough room in the buffer: 
+	 * the router's own choice ({@value #DEF_DROP_POLICY}; oldest received
+	 * first, unless the router defines otherwise in 
+	 * {@link #getNextMessageToRemove(boolean)}) or one of the indexed 
+	 * policies of {@link DropPolicyIndex}: "fifo" (oldest received first), 
+	 * "ttl" (first expiring first), "largest" (largest first) or "mofo" 
+	 * (most forwarded by this host first). Default is the router's own. */
+	public static final String DROP_POLICY_S = "dropPolicy";
+	/** drop policy -setting's default value ({@value}) */
+	public static final String DEF_DROP_POLICY = "router";
 	/** should messages that final recipient marks as delivered be deleted
 	 * from message buffer */
 	protected boolean deleteDelivered;
@@ -40,15 +53,31 @@ public abstract class ActiveRouter extends MessageRouter {
 	protected static int[] msgSuccess;
 	/** prefix of all response message IDs */
 	public static final String RESPONSE_PREFIX = "R_";
-	/** how often TTL check (discarding old messages) is performed */
+	/** how often TTL check (discarding old messages) was performed 
+	 * @deprecated Expired messages are dropped on the first update after
+	 * their TTL runs out, so the value is not used any more */
+	@Deprecated
 	public static int TTL_CHECK_INTERVAL = 60;
 	/** connection(s) that are currently used for sending */
 	protected ArrayList<Connection> sendingConnections;
-	/** sim time when the last TTL check was done */
-	private double lastTtlCheck;
+	/** compares messages by their order in the buffer */
+	private static final Comparator<Message> BUFFER_ORDER = 
+		new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			return Integer.compare(m1.getBufferSeqNo(), m2.getBufferSeqNo());
+		}
+	};
 
 	private MessageTransferAcceptPolicy policy;
 	private EnergyModel energy;
+	/** name of the indexed drop policy or null if the router's own choice
+	 * is used */
+	private String dropPolicy;
+	/** buffer's messages in the drop order (or null) */
+	private DropPolicyIndex dropIndex;
+	/** the messages with a finite TTL in the order they expire (the same 
+	 * object as dropIndex if the drop policy is TTL) */
+	private DropPolicyIndex expiryIndex;
 
 	/**
 	 * Constructor. Creates a new message router based on the settings in
@@ -61,6 +90,15 @@ public abstract class ActiveRouter extends MessageRouter {
 		this.policy = new MessageTransferAcceptPolicy(s);
 
 		this.deleteDelivered = s.getBoolean(DELETE_DELIVERED_S, false);
+		
+		this.dropPolicy = s.getSetting(DROP_POLICY_S, DEF_DROP_POLICY);
+		if (this.dropPolicy.equalsIgnoreCase(DEF_DROP_POLICY)) {
+			this.dropPolicy = null;
+		}
+		else if (!DropPolicyIndex.isValidPolicy(this.dropPolicy)) {
+			throw new SettingsError("Invalid value for " + 
+					s.getFullPropertyName(DROP_POLICY_S));
+		}
 
 		if (s.contains(EnergyModel.INIT_ENERGY_S)) {
 			this.energy = new EnergyModel(s);
@@ -80,13 +118,22 @@ public abstract class ActiveRouter extends MessageRouter {
 		this.deleteDelivered = r.deleteDelivered;
 		this.policy = r.policy;
 		this.energy = (r.energy != null ? r.energy.replicate() : null);
+		this.dropPolicy = r.dropPolicy;
 	}
 
 	@Override
 	public void init(DTNHost host, List<MessageListener> mListeners) {
 		super.init(host, mListeners);
 		this.sendingConnections = new ArrayList<Connection>(1);
-		this.lastTtlCheck = 0;
+		if (this.dropPolicy != null) {
+			this.dropIndex = new DropPolicyIndex(this.dropPolicy);
+		}
+		if (DropPolicyIndex.TTL.equalsIgnoreCase(this.dropPolicy)) {
+			this.expiryIndex = this.dropIndex;
+		}
+		else {
+			this.expiryIndex = new DropPolicyIndex(DropPolicyIndex.TTL);
+		}
 	}
 
 	/**
@@ -110,14 +157,12 @@ public abstract class ActiveRouter extends MessageRouter {
 
 		DTNHost other = con.getOtherNode(getHost());
 		/* do a copy to avoid concurrent modification exceptions
-		 * (startTransfer may remove messages) */
-		ArrayList<Message> temp =
-			new ArrayList<Message>(this.getMessageCollection());
+		 * (startTransfer may remove messages); the messages are in the 
+		 * buffer's order */
+		ArrayList<Message> temp = new ArrayList<Message>(getMessagesTo(other));
 		for (Message m : temp) {
-			if (other == m.getTo()) {
-				if (startTransfer(m, con) == RCV_OK) {
-					return true;
-				}
+			if (startTransfer(m, con) == RCV_OK) {
+				return true;
 			}
 		}
 		return false;
@@ -235,12 +280,13 @@ public abstract class ActiveRouter extends MessageRouter {
 			return TRY_LATER_BUSY; // only one connection at a time
 		}
 
-		if ( hasMessage(m.getId()) || isDeliveredMessage(m) ||
-				super.isBlacklistedMessage(m.getId())) {
+		if ( hasMessage(m) || isDeliveredMessage(m) ||
+				super.isBlacklistedMessage(m)) {
 			return DENIED_OLD; // already seen this message -> reject it
 		}
 
-		if (m.getTtl() <= 0 && m.getTo() != getHost()) {
+		if (m.getExpiryTime() <= SimClock.getTime() &&
+				m.getTo() != getHost()) {
 			/* TTL has expired and this host is not the final recipient */
 			return DENIED_TTL;
 		}
@@ -276,7 +322,7 @@ public abstract class ActiveRouter extends MessageRouter {
 		int freeBuffer = this.getFreeBufferSize();
 		/* delete messages from the buffer until there's enough space */
 		while (freeBuffer < size) {
-			Message m = getNextMessageToRemove(true); // don't remove msgs being sent
+			Message m = getNextMessageToDrop(); // don't remove msgs being sent
 
 			if (m == null) {
 				return false; // couldn't remove any more messages
@@ -291,15 +337,71 @@ public abstract class ActiveRouter extends MessageRouter {
 	}
 
 	/**
-	 * Drops messages whose TTL is less than zero.
+	 * Returns the message that should be dropped next, excluding the 
+	 * messages being sent, according to the drop policy
+	 * @return The message or null if no message could be dropped
+	 * @see #DROP_POLICY_S
+	 */
+	private Message getNextMessageToDrop() {
+		if (this.dropIndex == null) {
+			return getNextMessageToRemove(true);
+		}
+		
+		for (Message m : this.dropIndex) {
+			if (!isSending(m)) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		super.addToMessages(m, newMessage);
+		if (this.dropIndex != null) {
+			this.dropIndex.add(m);
+		}
+		if (this.expiryIndex != this.dropIndex &&
+				m.getInitialTtl() != Message.INFINITE_TTL) {
+			this.expiryIndex.add(m);
+		}
+	}
+
+	@Override
+	protected Message removeFromMessages(String id) {
+		Message m = super.removeFromMessages(id);
+		if (m != null && this.dropIndex != null) {
+			this.dropIndex.remove(id);
+		}
+		if (m != null && this.expiryIndex != this.dropIndex) {
+			this.expiryIndex.remove(id);
+		}
+		return m;
+	}
+
+	/**
+	 * Drops messages whose TTL has expired, except the ones being sent
+	 * (those are dropped after the transfer). Takes constant time if no 
+	 * message has expired.
 	 */
 	protected void dropExpiredMessages() {
-		Message[] messages = getMessageCollection().toArray(new Message[0]);
-		for (int i=0; i<messages.length; i++) {
-			int ttl = messages[i].getTtl();
-			if (ttl <= 0) {
-				deleteMessage(messages[i].getId(), true);
+		double now = SimClock.getTime();
+		Message first = this.expiryIndex.first();
+		if (first == null || first.getExpiryTime() > now) {
+			return;
+		}
+		
+		List<Message> expired = new ArrayList<Message>();
+		for (Message m : this.expiryIndex) {
+			if (m.getExpiryTime() > now) {
+				break;
 			}
+			if (!isSending(m)) {
+				expired.add(m);
+			}
+		}
+		for (Message m : expired) {
+			deleteMessage(m.getId(), true);
 		}
 	}
 
@@ -330,7 +432,7 @@ public abstract class ActiveRouter extends MessageRouter {
 		Message oldest = null;
 		for (Message m : messages) {
 
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+			if (excludeMsgBeingSent && isSending(m)) {
 				continue; // skip the message(s) that router is sending
 			}
 
@@ -348,6 +450,8 @@ public abstract class ActiveRouter extends MessageRouter {
 	/**
 	 * Returns a list of message-connections tuples of the messages whose
 	 * recipient is some host that we're connected to at the moment.
+	 * The tuples are in the buffer's order. Takes O(k log k) time for k
+	 * such messages (and doesn't depend on the number of other messages).
 	 * @return a list of message-connections tuples
 	 */
 	protected List<Tuple<Message, Connection>> getMessagesForConnected() {
@@ -358,11 +462,30 @@ public abstract class ActiveRouter extends MessageRouter {
 
 		List<Tuple<Message, Connection>> forTuples =
 			new ArrayList<Tuple<Message, Connection>>();
-		for (Message m : getMessageCollection()) {
-			for (Connection con : getConnections()) {
-				DTNHost to = con.getOtherNode(getHost());
-
-				if (m.getTo() == to) {
+		List<Connection> connections = getConnections();
+		List<Message> candidates = new ArrayList<Message>();
+		int nrofLists = 0;
+		for (int i=0, n = connections.size(); i < n; i++) {
+			DTNHost to = connections.get(i).getOtherNode(getHost());
+			List<Message> toList = getMessagesTo(to);
+			if (!toList.isEmpty() && !isConnectedBefore(to, i)) {
+				candidates.addAll(toList);
+				nrofLists++;
+			}
+		}
+		
+		/* the tuples are listed in the buffer's order (the order the queue
+		 * mode's sorting or shuffling starts from); the messages of each 
+		 * destination are already in that order, so only the lists need
+		 * to be merged */
+		if (nrofLists > 1) {
+			Collections.sort(candidates, BUFFER_ORDER);
+		}
+		for (int i=0, n = candidates.size(); i < n; i++) {
+			Message m = candidates.get(i);
+			for (int j=0, c = connections.size(); j < c; j++) {
+				Connection con = connections.get(j);
+				if (m.getTo() == con.getOtherNode(getHost())) {
 					forTuples.add(new Tuple<Message, Connection>(m,con));
 				}
 			}
@@ -370,7 +493,24 @@ public abstract class ActiveRouter extends MessageRouter {
 
 		return forTuples;
 	}
-
+	
+	/**
+	 * Returns true if there is a connection to the host before the given
+	 * index in the list of connections
+	 * @param to The host
+	 * @param index The index before which the connections are checked
+	 * @return True if some of the earlier connections is to the host
+	 */
+	private boolean isConnectedBefore(DTNHost to, int index) {
+		List<Connection> connections = getConnections();
+		for (int i=0; i < index; i++) {
+			if (connections.get(i).getOtherNode(getHost()) == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Tries to send messages for the connections that are mentioned
 	 * in the Tuples in the order they are in the list until one of
@@ -389,8 +529,8 @@ public abstract class ActiveRouter extends MessageRouter {
 			Message m = t.getKey();
 			Connection con = t.getValue();
 			if (startTransfer(m, con) == RCV_OK) {
-				if(this.msgSuccess==null){
-					this.msgSuccess=new int[getHost().getHosts().size()];
+				if(msgSuccess==null){
+					initMsgSuccess(getHost().getHosts().size());
 				}
 				//System.out.println(Arrays.toString(msgSuccess));
 				msgSuccess[getHost().getAddress()]++;
@@ -401,6 +541,17 @@ public abstract class ActiveRouter extends MessageRouter {
 		return null;
 	}
 
+	/**
+	 * Creates the (shared) successful transfer counters unless they were
+	 * already created by another router (possibly in another thread)
+	 * @param nrofHosts Number of hosts in the world
+	 */
+	private static synchronized void initMsgSuccess(int nrofHosts) {
+		if (msgSuccess == null) {
+			msgSuccess = new int[nrofHosts];
+		}
+	}
+
 	 /**
 	  * Goes trough the messages until the other node accepts one
 	  * for receiving (or doesn't accept any). If a transfer is started, the
@@ -515,8 +666,7 @@ public abstract class ActiveRouter extends MessageRouter {
 			return; // nothing to shuffle
 		}
 
-		Random rng = new Random(SimClock.getIntTime());
-		Collections.shuffle(messages, rng);
+		shuffleBySimTime(messages);
 	}
 
 	/**
@@ -572,6 +722,36 @@ public abstract class ActiveRouter extends MessageRouter {
 		}
 		return false;
 	}
+	
+	/**
+	 * Returns true if this router is currently sending a message with
+	 * the same ID as the given message. Faster than 
+	 * {@link #isSending(String)}.
+	 * @param m The message
+	 * @return True if the message is being sent false if not
+	 */
+	public boolean isSending(Message m) {
+		int intId = m.getIntId();
+		for (int i=0, n = this.sendingConnections.size(); i < n; i++) {
+			Message sent = this.sendingConnections.get(i).getMessage();
+			if (sent != null && sent.getIntId() == intId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if this router is carrying some message that the other
+	 * router doesn't have. Compares the routers' summary vectors, which is
+	 * much faster than checking the messages one by one, so routers can use
+	 * this to skip peers that already have all the messages.
+	 * @param other The other router
+	 * @return True if the other router is missing some of the messages
+	 */
+	protected boolean hasMessagesNotIn(MessageRouter other) {
+		return !getSummaryVector().isSubsetOf(other.getSummaryVector());
+	}
 
 	/**
 	 * Returns true if the node has energy left (i.e., energy modeling is
@@ -601,6 +781,9 @@ public abstract class ActiveRouter extends MessageRouter {
 			/* finalize ready transfers */
 			if (con.isMessageTransferred()) {
 				if (con.getMessage() != null) {
+					if (this.dropIndex != null) {
+						this.dropIndex.forwarded(con.getMessage().getId());
+					}
 					transferDone(con);
 					con.finalizeTransfer();
 				} /* else: some other entity aborted transfer */
@@ -628,12 +811,8 @@ public abstract class ActiveRouter extends MessageRouter {
 			}
 		}
 
-		/* time to do a TTL check and drop old messages? Only if not sending */
-		if (SimClock.getTime() - lastTtlCheck >= TTL_CHECK_INTERVAL &&
-				sendingConnections.size() == 0) {
-			dropExpiredMessages();
-			lastTtlCheck = SimClock.getTime();
-		}
+		/* drop the messages that have expired since the last update */
+		dropExpiredMessages();
 
 		if (energy != null) {
 			/* TODO: add support for other interfaces */
@@ -53,8 +53,12 @@ public class EpidemicOracleRouter extends ActiveRouter {
 			DTNHost peer = con.getOtherNode(getHost());
 			List<Message> newMessages = new ArrayList<Message>();
 			
+			if (peer.getRouter().getSummaryVector().isSubsetOf(
+					getSummaryVector())) {
+				return; // this router has all the peer's messages already
+			}
 			for (Message m : peer.getMessageCollection()) {
-				if (!this.hasMessage(m.getId())) {
+				if (!this.hasMessage(m)) {
 					newMessages.add(m);
 				}
 			}
@@ -125,12 +129,13 @@ public class EpidemicOracleRouter extends ActiveRouter {
 	}
 	
 	protected int checkReceiving(Message m) {
-		if ( isIncomingMessage(m.getId()) || hasMessage(m.getId()) || 
+		if ( isIncomingMessage(m.getId()) || hasMessage(m) || 
 				isDeliveredMessage(m) ){
 			return DENIED_OLD; // already seen this message -> reject it
 		}
 		
-		if (m.getTtl() <= 0 && m.getTo() != getHost()) {
+		if (m.getExpiryTime() <= SimClock.getTime() &&
+				m.getTo() != getHost()) {
 			/* TTL has expired and this host is not the final recipient */
 			return DENIED_TTL; 
 		}
@@ -48,6 +48,11 @@ public class EpidemicRouter extends ActiveRouter {
 	}
 	
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public EpidemicRouter replicate() {
 		return new EpidemicRouter(this);
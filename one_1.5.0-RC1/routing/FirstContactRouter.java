@@ -38,7 +38,7 @@ public class FirstContactRouter extends ActiveRouter {
 		
 		if (recvCheck == RCV_OK) {
 			/* don't accept a message that has already traversed this node */
-			if (m.getHops().contains(getHost())) {
+			if (m.isOnPath(getHost())) {
 				recvCheck = DENIED_OLD;
 			}
 		}
@@ -66,6 +66,11 @@ public class FirstContactRouter extends ActiveRouter {
 		this.deleteMessage(con.getMessage().getId(), false);
 	}
 		
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public FirstContactRouter replicate() {
 		return new FirstContactRouter(this);
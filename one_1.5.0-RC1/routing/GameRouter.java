@@ -178,7 +178,7 @@ public class GameRouter extends ActiveRouter {
 			}
 			
 			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
+				if (othRouter.hasMessage(m)) {
 					continue; // skip messages that the other one has
 				}
 				DTNHost dest = m.getTo();
@@ -55,12 +55,10 @@ public class MaxPropRouter extends ActiveRouter {
 	private MaxPropDijkstra dijkstra;	
 	/** IDs of the messages that are known to have reached the final dst */
 	private Set<String> ackedMessageIds;
-	/** mapping of the current costs for all messages. This should be set to
-	 * null always when the costs should be updated (a host is met or a new
-	 * message is received) */
-	private Map<Integer, Double> costsForMessages;
-	/** From host of the last cost calculation */
-	private DTNHost lastCostFrom;
+	/** are the costs cached by the cost calculator out of date. This should
+	 * be set to true always when the costs should be updated (a host is met
+	 * or a new message is received) */
+	private boolean costsInvalid;
 	
 	/** Map of which messages have been sent to which hosts from this host */
 	private Map<DTNHost, Set<String>> sentMessages;
@@ -115,6 +113,7 @@ public class MaxPropRouter extends ActiveRouter {
 		this.probs = new MeetingProbabilitySet(probSetMaxSize, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
 		this.dijkstra = new MaxPropDijkstra(this.allProbs);
+		this.costsInvalid = true;
 		this.ackedMessageIds = new HashSet<String>();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 		this.sentMessages = new HashMap<DTNHost, Set<String>>();
@@ -125,7 +124,7 @@ public class MaxPropRouter extends ActiveRouter {
 		super.changedConnection(con);
 		
 		if (con.isUp()) { // new connection
-			this.costsForMessages = null; // invalidate old cost estimates
+			this.costsInvalid = true; // invalidate old cost estimates
 			
 			if (con.isInitiator(getHost())) {
 				/* initiator performs all the actions on behalf of the
@@ -192,7 +191,7 @@ public class MaxPropRouter extends ActiveRouter {
 	
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
-		this.costsForMessages = null; // new message -> invalidate costs
+		this.costsInvalid = true; // new message -> invalidate costs
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
@@ -273,7 +272,7 @@ public class MaxPropRouter extends ActiveRouter {
 		List<Message> validMessages = new ArrayList<Message>();
 
 		for (Message m : messages) {	
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+			if (excludeMsgBeingSent && isSending(m)) {
 				continue; // skip the message(s) that router is sending
 			}
 			validMessages.add(m);
@@ -304,7 +303,10 @@ public class MaxPropRouter extends ActiveRouter {
 	 * Returns the message delivery cost between two hosts from this host's
 	 * point of view. If there is no path between "from" and "to" host, 
 	 * Double.MAX_VALUE is returned. Paths are calculated only to hosts
-	 * that this host has messages to.
+	 * that this host has messages to. The costs are cached until a host is
+	 * met or a new message is received; for the hosts that this host had no
+	 * messages to when the costs were calculated, Double.MAX_VALUE is 
+	 * returned until then.
 	 * @param from The host where a message is coming from
 	 * @param to The host where a message would be destined to
 	 * @return The cost of the cheapest path to the destination or 
@@ -312,29 +314,17 @@ public class MaxPropRouter extends ActiveRouter {
 	 */
 	public double getCost(DTNHost from, DTNHost to) {
 		/* check if the cached values are OK */
-		if (this.costsForMessages == null || lastCostFrom != from) {
+		if (this.costsInvalid) {
 			/* cached costs are invalid -> calculate new costs */
 			this.allProbs.put(getHost().getAddress(), this.probs);
-			int fromIndex = from.getAddress();
-			
-			/* calculate paths only to nodes we have messages to 
-			 * (optimization) */
-			Set<Integer> toSet = new HashSet<Integer>();
-			for (Message m : getMessageCollection()) {
-				toSet.add(m.getTo().getAddress());
-			}
-						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
-			this.lastCostFrom = from; // store source host for caching checks
+			this.dijkstra.invalidateCosts();
+			this.costsInvalid = false;
 		}
 		
-		if (costsForMessages.containsKey(to.getAddress())) {
-			return costsForMessages.get(to.getAddress());
-		}
-		else {
-			/* there's no known path to the given host */
-			return Double.MAX_VALUE;
-		}
+		/* calculate paths only to nodes we have messages to 
+		 * (optimization) */
+		return this.dijkstra.getCost(from, to, getMessageDestinations(),
+				getBufferVersion());
 	}
 	
 	/**
@@ -358,12 +348,15 @@ public class MaxPropRouter extends ActiveRouter {
 			if (othRouter.isTransferring()) {
 				continue; // skip hosts that are transferring
 			}
+			if (!hasMessagesNotIn(othRouter)) {
+				continue; // the other host has all the messages
+			}
 			
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m) ||
+						m.isOnPath(other)) {
 					continue; 
 				}
 				/* skip message if this host has already sent it to the other
@@ -592,6 +585,11 @@ public class MaxPropRouter extends ActiveRouter {
 		return top;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		MaxPropRouter r = new MaxPropRouter(this);
@@ -53,12 +53,10 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	private MaxPropDijkstra dijkstra;	
 	/** IDs of the messages that are known to have reached the final dst */
 	private Set<String> ackedMessageIds;
-	/** mapping of the current costs for all messages. This should be set to
-	 * null always when the costs should be updated (a host is met or a new
-	 * message is received) */
-	private Map<Integer, Double> costsForMessages;
-	/** From host of the last cost calculation */
-	private DTNHost lastCostFrom;
+	/** are the costs cached by the cost calculator out of date. This should
+	 * be set to true always when the costs should be updated (a host is met
+	 * or a new message is received) */
+	private boolean costsInvalid;
 		
 	/** Over how many samples the "average number of bytes transferred per
 	 * transfer opportunity" is taken */
@@ -122,6 +120,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 				MeetingProbabilitySet.INFINITE_SET_SIZE, this.alpha);
 		this.allProbs = new HashMap<Integer, MeetingProbabilitySet>();
 		this.dijkstra = new MaxPropDijkstra(this.allProbs);
+		this.costsInvalid = true;
 		this.ackedMessageIds = new HashSet<String>();
 		this.avgSamples = new int[BYTES_TRANSFERRED_AVG_SAMPLES];
 		initMeetings();
@@ -145,7 +144,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		super.changedConnection(con);
 		
 		if (con.isUp()) { // new connection
-			this.costsForMessages = null; // invalidate old cost estimates
+			this.costsInvalid = true; // invalidate old cost estimates
 			
 			if (con.isInitiator(getHost())) {
 				/* initiator performs all the actions on behalf of the
@@ -332,7 +331,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
-		this.costsForMessages = null; // new message -> invalidate costs
+		this.costsInvalid = true; // new message -> invalidate costs
 		Message m = super.messageTransferred(id, from);
 		/* was this node the final recipient of the message? */
 		if (isDeliveredMessage(m)) {
@@ -401,7 +400,7 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		List<Message> validMessages = new ArrayList<Message>();
 
 		for (Message m : messages) {	
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+			if (excludeMsgBeingSent && isSending(m)) {
 				continue; // skip the message(s) that router is sending
 			}
 			validMessages.add(m);
@@ -432,7 +431,10 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	 * Returns the message delivery cost between two hosts from this host's
 	 * point of view. If there is no path between "from" and "to" host, 
 	 * Double.MAX_VALUE is returned. Paths are calculated only to hosts
-	 * that this host has messages to.
+	 * that this host has messages to. The costs are cached until a host is
+	 * met or a new message is received; for the hosts that this host had no
+	 * messages to when the costs were calculated, Double.MAX_VALUE is 
+	 * returned until then.
 	 * @param from The host where a message is coming from
 	 * @param to The host where a message would be destined to
 	 * @return The cost of the cheapest path to the destination or 
@@ -440,29 +442,17 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 	 */
 	public double getCost(DTNHost from, DTNHost to) {
 		/* check if the cached values are OK */
-		if (this.costsForMessages == null || lastCostFrom != from) {
+		if (this.costsInvalid) {
 			/* cached costs are invalid -> calculate new costs */
 			this.allProbs.put(getHost().getAddress(), this.probs);
-			int fromIndex = from.getAddress();
-			
-			/* calculate paths only to nodes we have messages to 
-			 * (optimization) */
-			Set<Integer> toSet = new HashSet<Integer>();
-			for (Message m : getMessageCollection()) {
-				toSet.add(m.getTo().getAddress());
-			}
-						
-			this.costsForMessages = dijkstra.getCosts(fromIndex, toSet);
-			this.lastCostFrom = from; // store source host for caching checks
+			this.dijkstra.invalidateCosts();
+			this.costsInvalid = false;
 		}
 		
-		if (costsForMessages.containsKey(to.getAddress())) {
-			return costsForMessages.get(to.getAddress());
-		}
-		else {
-			/* there's no known path to the given host */
-			return Double.MAX_VALUE;
-		}
+		/* calculate paths only to nodes we have messages to 
+		 * (optimization) */
+		return this.dijkstra.getCost(from, to, getMessageDestinations(),
+				getBufferVersion());
 	}
 	
 	/**
@@ -489,8 +479,8 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 			for (Message m : msgCollection) {
 				/* skip messages that the other host has or that have
 				 * passed the other host */
-				if (othRouter.hasMessage(m.getId()) ||
-						m.getHops().contains(other)) {
+				if (othRouter.hasMessage(m) ||
+						m.isOnPath(other)) {
 					continue; 
 				}
 				messages.add(new Tuple<Message, Connection>(m,con));
@@ -714,6 +704,11 @@ public class MaxPropRouterWithEstimation extends ActiveRouter {
 		return top;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		MaxPropRouterWithEstimation r = new MaxPropRouterWithEstimation(this);
@@ -4,16 +4,20 @@
  */
 package routing;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
 
 import routing.util.RoutingInfo;
+import routing.util.SummaryVector;
 
+import util.Shuffler;
 import util.Tuple;
 
 import core.Application;
@@ -81,14 +85,37 @@ public abstract class MessageRouter {
 	public static final int DENIED_UNSPECIFIED = -99;
 	
 	private List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	private HashMap<String, Message> incomingMessages;
-	/** The messages this router is carrying */
-	private HashMap<String, Message> messages; 
+	/** The messages being transferred */
+	private ArrayList<Message> incomingMessages;
+	/** The hosts the incoming messages are from (same indices as in
+	 * {@link #incomingMessages}) */
+	private ArrayList<DTNHost> incomingFrom;
+	/** The messages this router is carrying (in the order they were 
+	 * added to the buffer) */
+	private LinkedHashMap<String, Message> messages; 
+	/** Integer IDs ({@link Message#getIntId()}) of the carried messages
+	 * (the size grows with the largest carried ID, not with the number of
+	 * carried messages) */
+	private SummaryVector messageIds;
+	/** The carried messages by their destination hosts (in the order 
+	 * they were added to the buffer) */
+	private HashMap<DTNHost, List<Message>> messagesByDestination;
+	/** Running number for the messages added to the buffer (see 
+	 * {@link Message#getBufferSeqNo()}) */
+	private int nextBufferSeqNo;
+	/** Total size of the messages this router is carrying (bytes) */
+	private int bufferOccupancy;
+	/** Number of times a message has been added to or removed from the
+	 * buffer */
+	private int bufferVersion;
 	/** The messages this router has received as the final recipient */
 	private HashMap<String, Message> deliveredMessages;
-	/** The messages that Applications on this router have blacklisted */
-	private HashMap<String, Object> blacklistedMessages;
+	/** Integer IDs of the messages received as the final recipient (one
+	 * bit per message created before the last delivered one) */
+	private BitSet deliveredIds;
+	/** Integer IDs of the messages that Applications on this router have 
+	 * blacklisted */
+	private BitSet blacklistedIds;
 	/** Host where this router belongs to */
 	private DTNHost host;
 	/** size of the buffer */
@@ -100,6 +127,8 @@ public abstract class MessageRouter {
 
 	/** applications attached to the host */
 	private HashMap<String, Collection<Application>> applications = null;
+	/** shuffler for the random orders (created when first needed) */
+	private Shuffler shuffler;
 	
 	/**
 	 * Constructor. Creates a new message router based on the settings in
@@ -139,10 +168,15 @@ public abstract class MessageRouter {
 	 * @param mListeners The message listeners
 	 */
 	public void init(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
-		this.messages = new HashMap<String, Message>();
+		this.incomingMessages = new ArrayList<Message>();
+		this.incomingFrom = new ArrayList<DTNHost>();
+		this.messages = new LinkedHashMap<String, Message>();
+		this.messageIds = new SummaryVector();
+		this.messagesByDestination = new HashMap<DTNHost, List<Message>>();
+		this.bufferOccupancy = 0;
 		this.deliveredMessages = new HashMap<String, Message>();
-		this.blacklistedMessages = new HashMap<String, Object>();
+		this.deliveredIds = new BitSet();
+		this.blacklistedIds = new BitSet();
 		this.mListeners = mListeners;
 		this.host = host;
 	}
@@ -175,6 +209,27 @@ public abstract class MessageRouter {
 				app.update(this.host);
 			}
 		}
+	}
+	
+	/**
+	 * Returns true if this router can be updated concurrently with the
+	 * routers of the hosts that it is not connected to, i.e., the router
+	 * doesn't share any mutable state with routers other than the ones 
+	 * of the connected hosts. Used by the parallel updates of 
+	 * {@link core.World}. This implementation returns false; subclasses
+	 * that are safe to update in parallel should override this.
+	 * @return True if the router can be updated in parallel with others
+	 */
+	public boolean isParallelSafe() {
+		return false;
+	}
+	
+	/**
+	 * Returns true if there are applications attached to this router
+	 * @return True if this router has applications
+	 */
+	public boolean hasApplications() {
+		return !this.applications.isEmpty();
 	}
 	
 	/**
@@ -201,6 +256,63 @@ public abstract class MessageRouter {
 		return this.messages.containsKey(id);
 	}
 	
+	/**
+	 * Checks if this router has a message with the same id as the given
+	 * message buffered. Faster than {@link #hasMessage(String)}.
+	 * @param m The message
+	 * @return True if the router has message with the same id, false if not
+	 */
+	public boolean hasMessage(Message m) {
+		return this.messageIds.contains(m.getIntId());
+	}
+	
+	/**
+	 * Returns the summary vector of the messages this router is carrying.
+	 * The vector is updated when messages are added or removed and it must
+	 * not be modified by the caller.
+	 * @return The summary vector of the carried messages
+	 */
+	public SummaryVector getSummaryVector() {
+		return this.messageIds;
+	}
+	
+	/**
+	 * Returns the version of the message buffer. The version changes every
+	 * time a message is added to or removed from the buffer, so routers can
+	 * use it to check if something they computed from the buffer's contents
+	 * (of this or another host) is still up to date.
+	 * @return The version of the message buffer
+	 */
+	public int getBufferVersion() {
+		return this.bufferVersion;
+	}
+	
+	/**
+	 * Returns the messages this router is carrying to the given destination
+	 * host in the buffer's order (see {@link #getMessageCollection()}).
+	 * The list must not be modified, and it changes when the messages
+	 * of the router change.
+	 * @param to The destination host
+	 * @return The messages whose final recipient is the host
+	 */
+	protected List<Message> getMessagesTo(DTNHost to) {
+		List<Message> list = this.messagesByDestination.get(to);
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns the hosts that are the final recipients of the messages this
+	 * router is carrying. The collection is updated when messages are
+	 * added or removed and it must not be modified by the caller.
+	 * @return The destination hosts of the carried messages
+	 */
+	protected Collection<DTNHost> getMessageDestinations() {
+		return this.messagesByDestination.keySet();
+	}
+	
 	/**
 	 * Returns true if a full message with same ID as the given message has been
 	 * received by this host as the <strong>final</strong> recipient 
@@ -210,7 +322,7 @@ public abstract class MessageRouter {
 	 * this host as the final recipient.
 	 */
 	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
+		return this.deliveredIds.get(m.getIntId());
 	}
 	
 	/** 
@@ -219,19 +331,24 @@ public abstract class MessageRouter {
 	 * This ensures the peer doesn't try to constantly send the same message to
 	 * this node, just to get dropped by an application every time.
 	 * 
-	 * @param id	id of the message
+	 * @param m	the message (or a message with the same id)
 	 * @return <code>true</code> if blacklisted, <code>false</code> otherwise.
 	 */
-	protected boolean isBlacklistedMessage(String id) {
-		return this.blacklistedMessages.containsKey(id);
+	protected boolean isBlacklistedMessage(Message m) {
+		return this.blacklistedIds.get(m.getIntId());
 	}
 	
 	/**
 	 * Returns a reference to the messages of this router in collection.
+	 * The messages are in the order they were added to the buffer (i.e., 
+	 * in the order of their {@link Message#getBufferSeqNo()}).
 	 * <b>Note:</b> If there's a chance that some message(s) from the collection
 	 * could be deleted (or added) while iterating through the collection, a
 	 * copy of the collection should be made to avoid concurrent modification
-	 * exceptions. 
+	 * exceptions. The collection must not be modified directly; use
+	 * {@link #addToMessages(Message, boolean)} and 
+	 * {@link #removeFromMessages(String)} (which keep track of the buffer
+	 * occupancy) instead.
 	 * @return a reference to the messages of this router in collection
 	 */
 	public Collection<Message> getMessageCollection() {
@@ -262,17 +379,20 @@ public abstract class MessageRouter {
 	 * size isn't defined)
 	 */
 	public int getFreeBufferSize() {
-		int occupancy = 0;
-		
 		if (this.getBufferSize() == Integer.MAX_VALUE) {
 			return Integer.MAX_VALUE;
 		}
 		
-		for (Message m : getMessageCollection()) {
-			occupancy += m.getSize();
-		}
-		
-		return this.getBufferSize() - occupancy;
+		return this.getBufferSize() - this.bufferOccupancy;
+	}
+	
+	/**
+	 * Returns the total size of the messages in the buffer. May be bigger
+	 * than the buffer size (see {@link #getFreeBufferSize()}).
+	 * @return The occupied buffer space (bytes)
+	 */
+	public int getOccupiedBufferSize() {
+		return this.bufferOccupancy;
 	}
 	
 	/**
@@ -372,10 +492,11 @@ public abstract class MessageRouter {
 			addToMessages(aMessage, false);
 		} else if (isFirstDelivery) {
 			this.deliveredMessages.put(id, aMessage);
+			this.deliveredIds.set(incoming.getIntId());
 		} else if (outgoing == null) {
 			// Blacklist messages that an app wants to drop.
 			// Otherwise the peer will just try to send it back again.
-			this.blacklistedMessages.put(id, null);
+			this.blacklistedIds.set(incoming.getIntId());
 		}
 		
 		for (MessageListener ml : this.mListeners) {
@@ -393,7 +514,32 @@ public abstract class MessageRouter {
 	 * @param from Who the message was from (previous hop).
 	 */
 	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
+		int i = indexOfIncoming(m.getId(), from);
+		if (i >= 0) {
+			this.incomingMessages.set(i, m);
+		}
+		else {
+			this.incomingMessages.add(m);
+			this.incomingFrom.add(from);
+		}
+	}
+	
+	/**
+	 * Returns the index of a message in the incoming messages buffer
+	 * @param id ID of the message
+	 * @param from The host that sent the message or null for any host
+	 * @return The index or -1 if the message wasn't found
+	 */
+	private int indexOfIncoming(String id, DTNHost from) {
+		/* there are only a few incoming messages at the time (at most one
+		   per connection) so a linear search is the fastest way */
+		for (int i=0, n = this.incomingMessages.size(); i < n; i++) {
+			if ((from == null || this.incomingFrom.get(i) == from) &&
+					this.incomingMessages.get(i).getId().equals(id)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 	
 	/**
@@ -404,7 +550,12 @@ public abstract class MessageRouter {
 	 * @return The found message or null if such message wasn't found
 	 */
 	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
+		int i = indexOfIncoming(id, from);
+		if (i < 0) {
+			return null;
+		}
+		this.incomingFrom.remove(i);
+		return this.incomingMessages.remove(i);
 	}
 	
 	/**
@@ -414,7 +565,7 @@ public abstract class MessageRouter {
 	 * @return True if such message is incoming right now
 	 */
 	protected boolean isIncomingMessage(String id) {
-		return this.incomingMessages.containsKey(id);
+		return indexOfIncoming(id, null) >= 0;
 	}
 	
 	/**
@@ -425,7 +576,23 @@ public abstract class MessageRouter {
 	 * message, if false, nothing is informed.
 	 */
 	protected void addToMessages(Message m, boolean newMessage) {
+		/* a replaced message is moved to the end of the buffer */
+		Message old = this.messages.remove(m.getId());
 		this.messages.put(m.getId(), m);
+		m.setBufferSeqNo(this.nextBufferSeqNo++);
+		this.messageIds.add(m.getIntId());
+		if (old != null) {
+			this.bufferOccupancy -= old.getSize();
+			removeFromDestinationIndex(old);
+		}
+		List<Message> toList = this.messagesByDestination.get(m.getTo());
+		if (toList == null) {
+			toList = new ArrayList<Message>(2);
+			this.messagesByDestination.put(m.getTo(), toList);
+		}
+		toList.add(m);
+		this.bufferOccupancy += m.getSize();
+		this.bufferVersion++;
 		
 		if (newMessage) {
 			for (MessageListener ml : this.mListeners) {
@@ -441,9 +608,32 @@ public abstract class MessageRouter {
 	 */
 	protected Message removeFromMessages(String id) {
 		Message m = this.messages.remove(id);
+		if (m != null) {
+			this.messageIds.remove(m.getIntId());
+			this.bufferOccupancy -= m.getSize();
+			this.bufferVersion++;
+			removeFromDestinationIndex(m);
+		}
 		return m;
 	}
 	
+	/**
+	 * Removes a message from the messages-by-destination index
+	 * @param m The message to remove
+	 */
+	private void removeFromDestinationIndex(Message m) {
+		List<Message> toList = this.messagesByDestination.get(m.getTo());
+		for (int i=0, n = toList.size(); i < n; i++) {
+			if (toList.get(i) == m) {
+				toList.remove(i);
+				if (n == 1) {
+					this.messagesByDestination.remove(m.getTo());
+				}
+				return;
+			}
+		}
+	}
+	
 	/**
 	 * This method should be called (on the receiving host) when a message 
 	 * transfer was aborted.
@@ -494,6 +684,19 @@ public abstract class MessageRouter {
 		}
 	}
 	
+	/**
+	 * Shuffles the given list to a random order that depends on the current
+	 * (integer) simulation time (the same order as Collections.shuffle 
+	 * gives with a new Random seeded with the time).
+	 * @param list The list to shuffle
+	 */
+	protected void shuffleBySimTime(List<?> list) {
+		if (this.shuffler == null) {
+			this.shuffler = new Shuffler();
+		}
+		this.shuffler.shuffle(list, SimClock.getIntTime());
+	}
+	
 	/**
 	 * Sorts/shuffles the given list according to the current sending queue 
 	 * mode. The list can contain either Message or Tuple<Message, Connection> 
@@ -505,7 +708,7 @@ public abstract class MessageRouter {
 	protected List sortByQueueMode(List list) {
 		switch (sendQueueMode) {
 		case Q_MODE_RANDOM:
-			Collections.shuffle(list, new Random(SimClock.getIntTime()));
+			shuffleBySimTime(list);
 			break;
 		case Q_MODE_FIFO:
 			Collections.sort(list, 
@@ -555,8 +758,10 @@ public abstract class MessageRouter {
 	protected int compareByQueueMode(Message m1, Message m2) {
 		switch (sendQueueMode) {
 		case Q_MODE_RANDOM:
-			/* return randomly (enough) but consistently -1, 0 or 1 */
-			return (m1.hashCode()/2 + m2.hashCode()/2) % 3 - 1; 
+			/* return randomly (enough) but consistently -1, 0 or 1; 
+			   (identity hash codes would depend on the thread that first 
+			   asked for them when routers are updated in parallel) */
+			return (m1.getId().hashCode()/2 + m2.getId().hashCode()/2) % 3 - 1; 
 		case Q_MODE_FIFO:
 			double diff = m1.getReceiveTime() - m2.getReceiveTime();
 			if (diff == 0) {
@@ -587,7 +792,7 @@ public abstract class MessageRouter {
 		ri.addMoreInfo(delivered);
 		ri.addMoreInfo(cons);
 		
-		for (Message m : this.incomingMessages.values()) {
+		for (Message m : this.incomingMessages) {
 			incoming.addMoreInfo(new RoutingInfo(m));
 		}
 		
@@ -8,10 +8,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import routing.util.PredictabilityTable;
 import routing.util.RoutingInfo;
 
 import util.Tuple;
@@ -55,10 +54,19 @@ public class ProphetRouter extends ActiveRouter {
 	private double beta;
 
 	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
+	private PredictabilityTable preds;
 	/** last delivery predictability update (sim)time */
 	private double lastAgeUpdate;
 	
+	/** messages to forward to the connected hosts in the order they should
+	 * be tried (null if not ranked yet) */
+	private List<Tuple<Message, Connection>> ranking;
+	/** the connections the ranking was computed for */
+	private Connection[] rankedConnections;
+	/** the buffer and predictability versions the ranking was computed
+	 * with (see {@link #saveRankingVersions()}) */
+	private int[] rankedVersions;
+	
 	/**
 	 * Constructor. Creates a new message router based on the settings in
 	 * the given Settings object.
@@ -93,7 +101,7 @@ public class ProphetRouter extends ActiveRouter {
 	 * Initializes predictability hash
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new PredictabilityTable();
 	}
 
 	@Override
@@ -126,12 +134,7 @@ public class ProphetRouter extends ActiveRouter {
 	 */
 	public double getPredFor(DTNHost host) {
 		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host);
 	}
 	
 	/**
@@ -146,17 +149,17 @@ public class ProphetRouter extends ActiveRouter {
 			" with other routers of same type";
 		
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
+		PredictabilityTable othersPreds = 
 			((ProphetRouter)otherRouter).getDeliveryPreds();
 		
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
+		for (DTNHost h : othersPreds.getHosts()) {
+			if (h == getHost()) {
 				continue; // don't add yourself
 			}
 			
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
+			double pOld = getPredFor(h); // P(a,c)_old
+			double pNew = pOld + ( 1 - pOld) * pForHost * othersPreds.get(h) * beta;
+			preds.put(h, pNew);
 		}
 	}
 
@@ -175,18 +178,16 @@ public class ProphetRouter extends ActiveRouter {
 		}
 		
 		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
-		}
+		preds.age(mult);
 		
 		this.lastAgeUpdate = SimClock.getTime();
 	}
 	
 	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
+	 * Returns the table of this router's delivery predictions
+	 * @return the table of this router's delivery predictions
 	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
+	private PredictabilityTable getDeliveryPreds() {
 		ageDeliveryPreds(); // make sure the aging is done
 		return this.preds;
 	}
@@ -212,10 +213,99 @@ public class ProphetRouter extends ActiveRouter {
 	 * @return The return value of {@link #tryMessagesForConnected(List)}
 	 */
 	private Tuple<Message, Connection> tryOtherMessages() {
-		List<Tuple<Message, Connection>> messages = 
-			new ArrayList<Tuple<Message, Connection>>(); 
+		if (!isRankingValid()) {
+			this.ranking = rankOtherMessages();
+			this.rankedConnections = getConnections().toArray(
+					new Connection[0]);
+			saveRankingVersions();
+		}
+		
+		if (this.ranking.size() == 0) {
+			return null;
+		}
+		return tryMessagesForConnected(this.ranking); // try to send messages
+	}
+	
+	/**
+	 * Returns true if the last ranking of the messages is still valid, i.e.,
+	 * the connections, the message buffers, and the predictabilities of this
+	 * and the connected hosts have not changed since it was computed. Aging
+	 * of the predictabilities doesn't invalidate the ranking because all the
+	 * predictabilities age at the same rate. However, the ranking keeps the
+	 * predictabilities it was computed with, so a reused ranking is the same
+	 * as a new one only up to the rounding errors of the aging.
+	 * @return True if the ranking can be reused
+	 */
+	private boolean isRankingValid() {
+		List<Connection> cons = getConnections();
+		if (this.ranking == null || 
+				cons.size() != this.rankedConnections.length) {
+			return false;
+		}
+		for (int i=0, n = cons.size(); i < n; i++) {
+			if (cons.get(i) != this.rankedConnections[i]) {
+				return false;
+			}
+		}
+		
+		int[] versions = this.rankedVersions;
+		if (versions[0] != getBufferVersion() || 
+				versions[1] != this.preds.getVersion()) {
+			return false;
+		}
+		for (int i=0, n = cons.size(); i < n; i++) {
+			ProphetRouter othRouter = getOtherRouter(cons.get(i));
+			if (versions[2 + i*3] != othRouter.getBufferVersion() ||
+					versions[3 + i*3] != othRouter.preds.getVersion() ||
+					versions[4 + i*3] != (othRouter.isTransferring() ? 1 : 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
 	
+	/**
+	 * Stores the current versions of the data the ranking depends on: the
+	 * buffer and predictability versions of this host and of all the
+	 * connected hosts and whether the connected hosts are transferring
+	 */
+	private void saveRankingVersions() {
+		List<Connection> cons = getConnections();
+		int length = 2 + cons.size() * 3;
+		if (this.rankedVersions == null || 
+				this.rankedVersions.length != length) {
+			this.rankedVersions = new int[length];
+		}
+		int[] versions = this.rankedVersions;
+		versions[0] = getBufferVersion();
+		versions[1] = this.preds.getVersion();
+		for (int i=0, n = cons.size(); i < n; i++) {
+			ProphetRouter othRouter = getOtherRouter(cons.get(i));
+			versions[2 + i*3] = othRouter.getBufferVersion();
+			versions[3 + i*3] = othRouter.preds.getVersion();
+			versions[4 + i*3] = othRouter.isTransferring() ? 1 : 0;
+		}
+	}
+	
+	/**
+	 * Returns the router of the host on the other side of a connection
+	 */
+	private ProphetRouter getOtherRouter(Connection con) {
+		return (ProphetRouter)con.getOtherNode(getHost()).getRouter();
+	}
+	
+	/**
+	 * Ranks the messages that the connected hosts have a higher probability
+	 * to deliver. The delivery predictabilities are looked up once for
+	 * every message-connection pair and the pairs are sorted by them.
+	 * @return The message-connection tuples in the order they should be
+	 * tried
+	 */
+	private List<Tuple<Message, Connection>> rankOtherMessages() {
+		List<RankedTuple> ranked = new ArrayList<RankedTuple>(); 
+		
 		Collection<Message> msgCollection = getMessageCollection();
+		PredictabilityTable myPreds = getDeliveryPreds();
 		
 		/* for all connected hosts collect all messages that have a higher
 		   probability of delivery by the other host */
@@ -226,45 +316,52 @@ public class ProphetRouter extends ActiveRouter {
 			if (othRouter.isTransferring()) {
 				continue; // skip hosts that are transferring
 			}
+			if (!hasMessagesNotIn(othRouter)) {
+				continue; // the other host has all the messages
+			}
 			
+			PredictabilityTable othPreds = othRouter.getDeliveryPreds();
 			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
+				if (othRouter.hasMessage(m)) {
 					continue; // skip messages that the other one has
 				}
-				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
+				double pOther = othPreds.get(m.getTo());
+				if (PredictabilityTable.isGreater(pOther,
+						myPreds.get(m.getTo()))) {
 					// the other node has higher probability of delivery
-					messages.add(new Tuple<Message, Connection>(m,con));
+					ranked.add(new RankedTuple(m, con, pOther));
 				}
 			}			
 		}
 		
-		if (messages.size() == 0) {
-			return null;
-		}
-		
 		// sort the message-connection tuples
-		Collections.sort(messages, new TupleComparator());
-		return tryMessagesForConnected(messages);	// try to send messages
+		Collections.sort(ranked, new TupleComparator());
+		return new ArrayList<Tuple<Message, Connection>>(ranked);
 	}
 	
 	/**
-	 * Comparator for Message-Connection-Tuples that orders the tuples by
-	 * their delivery probability by the host on the other side of the 
+	 * Message-Connection-Tuple with the delivery probability of the message
+	 * by the host on the other side of the connection
+	 */
+	private static class RankedTuple extends Tuple<Message, Connection> {
+		private double pred;
+		
+		private RankedTuple(Message m, Connection con, double pred) {
+			super(m, con);
+			this.pred = pred;
+		}
+	}
+	
+	/**
+	 * Comparator for ranked Message-Connection-Tuples that orders the tuples
+	 * by their delivery probability by the host on the other side of the 
 	 * connection (GRTRMax)
 	 */
-	private class TupleComparator implements Comparator 
-		<Tuple<Message, Connection>> {
+	private class TupleComparator implements Comparator<RankedTuple> {
 
-		public int compare(Tuple<Message, Connection> tuple1,
-				Tuple<Message, Connection> tuple2) {
-			// delivery probability of tuple1's message with tuple1's connection
-			double p1 = ((ProphetRouter)tuple1.getValue().
-					getOtherNode(getHost()).getRouter()).getPredFor(
-					tuple1.getKey().getTo());
-			// -"- tuple2...
-			double p2 = ((ProphetRouter)tuple2.getValue().
-					getOtherNode(getHost()).getRouter()).getPredFor(
-					tuple2.getKey().getTo());
+		public int compare(RankedTuple tuple1, RankedTuple tuple2) {
+			double p1 = tuple1.pred;
+			double p2 = tuple2.pred;
 
 			// bigger probability should come first
 			if (p2-p1 == 0) {
@@ -287,9 +384,8 @@ public class ProphetRouter extends ActiveRouter {
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 				" delivery prediction(s)");
 		
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		for (DTNHost host : preds.getHosts()) {
+			double value = preds.get(host);
 			
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
@@ -299,6 +395,11 @@ public class ProphetRouter extends ActiveRouter {
 		return top;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		ProphetRouter r = new ProphetRouter(this);
@@ -8,10 +8,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import routing.util.PredictabilityTable;
 import routing.util.RoutingInfo;
 
 import util.Tuple;
@@ -72,10 +71,10 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	private double ptavg;
 
 	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
+	private PredictabilityTable preds;
 
 	/** last meeting time with a node */
-	private Map<DTNHost, Double> meetings;
+	private PredictabilityTable meetings;
 	private int nrofSamples;
 	private double meanIET;
 
@@ -126,14 +125,14 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 * Initializes predictability hash
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new PredictabilityTable();
 	}
 
 	/**
 	 * Initializes inter-encounter time estimator
 	 */
 	private void initMeetings() {
-		this.meetings = new HashMap<DTNHost, Double>();
+		this.meetings = new PredictabilityTable();
 		this.meanIET = 0;
 		this.nrofSamples = 0;
 	}
@@ -159,7 +158,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	private boolean updateIET(DTNHost host) {		
 		/* First estimate the mean InterEncounter Time */
 		double currentTime = SimClock.getTime();
-		if (meetings.containsKey(host)) {
+		if (meetings.contains(host)) {
 			double timeDiff = currentTime - meetings.get(host);
 			// System.out.printf("current time: %f\t last time:  %f\n",currentTime,meetings.get(host));
 
@@ -338,12 +337,7 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 	 */
 	public double getPredFor(DTNHost host) {
 		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host);
 	}
 
 	/**
@@ -358,17 +352,17 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		" with other routers of same type";
 
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
+		PredictabilityTable othersPreds = 
 			((ProphetRouterWithEstimation)otherRouter).getDeliveryPreds();
 
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
+		for (DTNHost h : othersPreds.getHosts()) {
+			if (h == getHost()) {
 				continue; // don't add yourself
 			}
 
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pOld + ( 1 - pOld) * pForHost * e.getValue() * beta;
-			preds.put(e.getKey(), pNew);
+			double pOld = getPredFor(h); // P(a,c)_old
+			double pNew = pOld + ( 1 - pOld) * pForHost * othersPreds.get(h) * beta;
+			preds.put(h, pNew);
 		}
 	}
 
@@ -386,18 +380,16 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		}
 
 		double mult = Math.pow(gamma, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
-		}
+		preds.age(mult);
 
 		this.lastAgeUpdate = SimClock.getTime();
 	}
 
 	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
+	 * Returns the table of this router's delivery predictions
+	 * @return the table of this router's delivery predictions
 	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
+	private PredictabilityTable getDeliveryPreds() {
 		ageDeliveryPreds(); // make sure the aging is done
 		return this.preds;
 	}
@@ -439,10 +431,11 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 			}
 
 			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
+				if (othRouter.hasMessage(m)) {
 					continue; // skip messages that the other one has
 				}
-				if (othRouter.getPredFor(m.getTo()) > getPredFor(m.getTo())) {
+				if (PredictabilityTable.isGreater(
+						othRouter.getPredFor(m.getTo()), getPredFor(m.getTo()))) {
 					// the other node has higher probability of delivery
 					messages.add(new Tuple<Message, Connection>(m,con));
 				}
@@ -498,9 +491,8 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 		" delivery prediction(s)");
 
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		for (DTNHost host : preds.getHosts()) {
+			double value = preds.get(host);
 
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
@@ -514,6 +506,11 @@ public class ProphetRouterWithEstimation extends ActiveRouter {
 		return top;
 	}
 
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		ProphetRouterWithEstimation r = new ProphetRouterWithEstimation(this);
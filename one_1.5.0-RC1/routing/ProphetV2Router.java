@@ -10,12 +10,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import java.util.Random;
 
+import routing.util.PredictabilityTable;
 import routing.util.RoutingInfo;
 
 
@@ -61,10 +60,10 @@ public class ProphetV2Router extends ActiveRouter {
 	private double beta;
 
 	/** delivery predictabilities */
-	private Map<DTNHost, Double> preds;
+	private PredictabilityTable preds;
 
 	/** last encouter timestamp (sim)time */
-	private Map<DTNHost, Double> lastEncouterTime;
+	private PredictabilityTable lastEncouterTime;
 	
 	/** last delivery predictability update (sim)time */
 	private double lastAgeUpdate;
@@ -103,17 +102,17 @@ public class ProphetV2Router extends ActiveRouter {
 	}
 	
 	/**
-	 * Initializes lastEncouterTime hash
+	 * Initializes lastEncouterTime table
 	 */
 	private void initEncTimes() {
-		this.lastEncouterTime = new HashMap<DTNHost, Double>();
+		this.lastEncouterTime = new PredictabilityTable();
 	}
 
 		/**
 	 * Initializes predictability hash
 	 */
 	private void initPreds() {
-		this.preds = new HashMap<DTNHost, Double>();
+		this.preds = new PredictabilityTable();
 	}
 	
 	@Override
@@ -160,7 +159,7 @@ public class ProphetV2Router extends ActiveRouter {
 	 * @return the last timestamp of encouter with the host
 	 */
 	public double getEncTimeFor(DTNHost host) {
-		if (lastEncouterTime.containsKey(host)) {
+		if (lastEncouterTime.contains(host)) {
 			return lastEncouterTime.get(host);
 		}
 		else {
@@ -176,12 +175,7 @@ public class ProphetV2Router extends ActiveRouter {
 	 */
 	public double getPredFor(DTNHost host) {
 		ageDeliveryPreds(); // make sure preds are updated before getting
-		if (preds.containsKey(host)) {
-			return preds.get(host);
-		}
-		else {
-			return 0;
-		}
+		return preds.get(host);
 	}
 	
 	/**
@@ -196,19 +190,19 @@ public class ProphetV2Router extends ActiveRouter {
 			"PRoPHETv2 only works with other routers of same type";
 		
 		double pForHost = getPredFor(host); // P(a,b)
-		Map<DTNHost, Double> othersPreds = 
+		PredictabilityTable othersPreds = 
 			((ProphetV2Router)otherRouter).getDeliveryPreds();
 		
-		for (Map.Entry<DTNHost, Double> e : othersPreds.entrySet()) {
-			if (e.getKey() == getHost()) {
+		for (DTNHost h : othersPreds.getHosts()) {
+			if (h == getHost()) {
 				continue; // don't add yourself
 			}
 
 //ProphetV2 max(old,new)
-			double pOld = getPredFor(e.getKey()); // P(a,c)_old
-			double pNew = pForHost * e.getValue() * beta;
-			if(pNew>pOld)
-				preds.put(e.getKey(), pNew);
+			double pOld = getPredFor(h); // P(a,c)_old
+			double pNew = pForHost * othersPreds.get(h) * beta;
+			if(PredictabilityTable.isGreater(pNew, pOld))
+				preds.put(h, pNew);
 		
 		}
 	}
@@ -228,18 +222,16 @@ public class ProphetV2Router extends ActiveRouter {
 		}
 		
 		double mult = Math.pow(GAMMA, timeDiff);
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			e.setValue(e.getValue()*mult);
-		}
+		preds.age(mult);
 		
 		this.lastAgeUpdate = SimClock.getTime();
 	}
 	
 	/**
-	 * Returns a map of this router's delivery predictions
-	 * @return a map of this router's delivery predictions
+	 * Returns the table of this router's delivery predictions
+	 * @return the table of this router's delivery predictions
 	 */
-	private Map<DTNHost, Double> getDeliveryPreds() {
+	private PredictabilityTable getDeliveryPreds() {
 		ageDeliveryPreds(); // make sure the aging is done
 		return this.preds;
 	}
@@ -281,10 +273,11 @@ public class ProphetV2Router extends ActiveRouter {
 			}
 			
 			for (Message m : msgCollection) {
-				if (othRouter.hasMessage(m.getId())) {
+				if (othRouter.hasMessage(m)) {
 					continue; // skip messages that the other one has
 				}
-				if((othRouter.getPredFor(m.getTo()) >= getPredFor(m.getTo())))
+				if(!PredictabilityTable.isGreater(getPredFor(m.getTo()),
+						othRouter.getPredFor(m.getTo())))
 				{
 				
 					messages.add(new Tuple<Message, Connection>(m,con));
@@ -341,9 +334,8 @@ public class ProphetV2Router extends ActiveRouter {
 		RoutingInfo ri = new RoutingInfo(preds.size() + 
 				" delivery prediction(s)");
 		
-		for (Map.Entry<DTNHost, Double> e : preds.entrySet()) {
-			DTNHost host = e.getKey();
-			Double value = e.getValue();
+		for (DTNHost host : preds.getHosts()) {
+			double value = preds.get(host);
 			
 			ri.addMoreInfo(new RoutingInfo(String.format("%s : %.6f", 
 					host, value)));
@@ -353,6 +345,11 @@ public class ProphetV2Router extends ActiveRouter {
 		return top;
 	}
 	
+	@Override
+	public boolean isParallelSafe() {
+		return true;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		ProphetV2Router r = new ProphetV2Router(this);
@@ -99,7 +99,7 @@ public class WaveRouter extends ActiveRouter {
 			}
 				
 			
-			if (excludeMsgBeingSent && isSending(m.getId())) {
+			if (excludeMsgBeingSent && isSending(m)) {
 				continue; /* skip the message(s) that router is sending */
 			}
 			
@@ -378,7 +378,7 @@ public class edMultiRouter extends ActiveRouter{
 					if(othRouter.isTransferring()){
 						continue;
 					}
-					if(othRouter.hasMessage(m.getId())){
+					if(othRouter.hasMessage(m)){
 						continue;
 					}
 					if(bestGammaLocal.containsKey(other))
@@ -398,7 +398,7 @@ public class edMultiRouter extends ActiveRouter{
 					if(othRouter.isTransferring()){
 						continue;
 					}
-					if(othRouter.hasMessage(m.getId())){
+					if(othRouter.hasMessage(m)){
 						continue;
 					}
 						messages.add(new Tuple<Message, Connection>(m,con));	
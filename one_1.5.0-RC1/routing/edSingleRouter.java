@@ -260,7 +260,7 @@ public class edSingleRouter extends ActiveRouter {
 					if(othRouter.isTransferring()){
 						continue;
 					}
-					if(othRouter.hasMessage(m.getId())){
+					if(othRouter.hasMessage(m)){
 						continue;
 					}
 					if(other==maxGamma.getKey())
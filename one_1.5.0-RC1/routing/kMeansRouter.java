@@ -67,9 +67,14 @@ public class kMeansRouter extends ActiveRouter{
     /** identifier for the binary-mode setting ({@value})*/
     public static final String BINARY_MODE = "binaryMode";
 
-    /** Message property key */
+    /** Message property key (the number of copies is stored to the
+     * integer property slot {@link #MSG_COUNT_SLOT}, so
+     * {@link Message#getProperty(String)} returns null for this key) */
     public static final String MSG_COUNT_PROPERTY = kMeans_NS + "." +
         "copies";
+    /** Message integer property slot of the number of copies */
+    public static final int MSG_COUNT_SLOT =
+        Message.registerIntProperty(MSG_COUNT_PROPERTY);
 
     protected int initialNrofCopies;
     protected boolean isBinary;
@@ -135,9 +140,9 @@ public class kMeansRouter extends ActiveRouter{
     @Override
     public Message messageTransferred(String id, DTNHost from) {
         Message msg = super.messageTransferred(id, from);
-        Integer nrofCopies = (Integer)msg.getProperty(MSG_COUNT_PROPERTY);
+        int nrofCopies = msg.getIntProperty(MSG_COUNT_SLOT);
 
-        assert nrofCopies != null : "Not a SnW message: " + msg;
+        assert msg.hasIntProperty(MSG_COUNT_SLOT) : "Not a SnW message: " + msg;
 
         if (isBinary) {
             /* in binary S'n'W the receiving node gets ceil(n/2) copies */
@@ -148,7 +153,7 @@ public class kMeansRouter extends ActiveRouter{
             nrofCopies = 1;
         }
 
-        msg.updateProperty(MSG_COUNT_PROPERTY, nrofCopies);
+        msg.setIntProperty(MSG_COUNT_SLOT, nrofCopies);
         return msg;
     }
 
@@ -157,7 +162,7 @@ public class kMeansRouter extends ActiveRouter{
         makeRoomForNewMessage(msg.getSize());
 
         msg.setTtl(this.msgTtl);
-        msg.addProperty(MSG_COUNT_PROPERTY, new Integer(initialNrofCopies));
+        msg.addIntProperty(MSG_COUNT_SLOT, initialNrofCopies);
         addToMessages(msg, true);
         return true;
     }
@@ -400,7 +405,7 @@ public class kMeansRouter extends ActiveRouter{
                 if(othRouter.isTransferring()){
                     continue;
                 }
-                if(othRouter.hasMessage(m.getId())){
+                if(othRouter.hasMessage(m)){
                     continue;
                 }
                 if(result.get(0,i)==positive_cluster)
@@ -419,7 +424,7 @@ public class kMeansRouter extends ActiveRouter{
                     if(othRouter.isTransferring()){
                         continue;
                     }
-                    if(othRouter.hasMessage(m.getId())){
+                    if(othRouter.hasMessage(m)){
                         continue;
                     }
                     messages.add(new Tuple<Message, Connection>(m,con));
@@ -444,10 +449,9 @@ public class kMeansRouter extends ActiveRouter{
         List<Message> list = new ArrayList<Message>();
 
         for (Message m : getMessageCollection()) {
-            Integer nrofCopies = (Integer)m.getProperty(MSG_COUNT_PROPERTY);
-            assert nrofCopies != null : "SnW message " + m + " didn't have " +
-                "nrof copies property!";
-            if (nrofCopies > 1) {
+            assert m.hasIntProperty(MSG_COUNT_SLOT) : "SnW message " + m +
+                " didn't have nrof copies property!";
+            if (m.getIntProperty(MSG_COUNT_SLOT) > 1) {
                 list.add(m);
             }
         }
@@ -464,7 +468,7 @@ public class kMeansRouter extends ActiveRouter{
      */
     @Override
     protected void transferDone(Connection con) {
-        Integer nrofCopies;
+        int nrofCopies;
         String msgId = con.getMessage().getId();
         /* get this router's copy of the message */
         Message msg = getMessage(msgId);
@@ -474,14 +478,14 @@ public class kMeansRouter extends ActiveRouter{
         }
 
         /* reduce the amount of copies left */
-        nrofCopies = (Integer)msg.getProperty(MSG_COUNT_PROPERTY);
+        nrofCopies = msg.getIntProperty(MSG_COUNT_SLOT);
         if (isBinary) {
             nrofCopies /= 2;
         }
         else {
             nrofCopies--;
         }
-        msg.updateProperty(MSG_COUNT_PROPERTY, nrofCopies);
+        msg.setIntProperty(MSG_COUNT_SLOT, nrofCopies);
     }
 
 //calculates euclidean distance between two nodes
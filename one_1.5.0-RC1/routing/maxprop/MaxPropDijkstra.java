@@ -4,36 +4,47 @@
  */
 package routing.maxprop;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 
+import core.DTNHost;
+
 /**
  * Dijkstra's shortest path implementation for MaxProp Router module.
+ * The search uses arrays indexed by the node addresses and an indexed
+ * binary heap (with a decrease-key operation) as the priority queue. The
+ * costs calculated from each source node are cached until the meeting
+ * probabilities change (see {@link #invalidateCosts()}) or, when a 
+ * different source node is asked for, the target nodes change.
  */
 public class MaxPropDijkstra {
 	/** Value for infinite distance  */
-	private static final Double INFINITY = Double.MAX_VALUE;
-	/** Initial size of the priority queue */
-	private static final int PQ_INIT_SIZE = 11;
-
-	/** Map of node distances from the source node */
-	private DistanceMap distancesFromStart;
-	/** Set of already visited nodes (where the shortest path is known) */
-	private Set<Integer> visited;
-	/** Priority queue of unvisited nodes discovered so far */
-	private Queue<Integer> unvisited;
-	/** Map of previous nodes on the shortest path(s) -- only used for
-	 * debugging purposes */
-	private Map<Integer, Integer> prevNodes;
+	private static final double INFINITY = Double.MAX_VALUE;
+
 	/** Mapping of to other nodes' (whom this node has met) probability sets */
 	private Map<Integer, MeetingProbabilitySet> probs;
-	
+	/** Cached costs from the source nodes that have been asked for since
+	 * the last invalidation */
+	private List<Costs> cachedCosts;
+	/** the source node of the last cost query (or -1 if there has been no
+	 * query since the last invalidation) */
+	private int lastSource;
+
+	/** the search arrays of each thread (shared by all the instances that
+	 * thread uses, since a search is always completed before the next one
+	 * starts) */
+	private static final ThreadLocal<Search> searches =
+		new ThreadLocal<Search>() {
+			protected Search initialValue() {
+				return new Search();
+			}
+		};
+
 	/**
 	 * Constructor.
 	 * @param probs A reference to the mapping of the known hosts meeting
@@ -41,184 +52,335 @@ public class MaxPropDijkstra {
 	 */
 	public MaxPropDijkstra(Map<Integer, MeetingProbabilitySet> probs) {
 		this.probs = probs;
+		this.cachedCosts = new ArrayList<Costs>(2);
+		this.lastSource = -1;
 	}
 
 	/**
-	 * Initializes a new search with the first hop router node
-	 * @param firstHop The first hop router node
-	 */
-	private void initWith(Integer firstHop) {
-		this.unvisited = new PriorityQueue<Integer>(PQ_INIT_SIZE, 
-				new DistanceComparator());
-		this.visited = new HashSet<Integer>();
-		this.prevNodes = new HashMap<Integer, Integer>();
-		this.distancesFromStart = new DistanceMap();
-		
-		// set distance to source 0 and initialize unvisited queue
-		this.distancesFromStart.put(firstHop, 0);
-		this.unvisited.add(firstHop);
-	}
-	
-	/**
-	 * Calculates total costs to the given set of target nodes. The cost to 
+	 * Calculates total costs to the given set of target nodes. The cost to
 	 * a node is the sum of complements of probabilities that all the links
-	 * come up as the next contact of the nodes. 
+	 * come up as the next contact of the nodes.
 	 * @param from The index (address) of the start node
 	 * @param to The address set of destination nodes
 	 * @return A map of (destination node, cost) tuples
 	 */
 	public Map<Integer, Double> getCosts(Integer from, Set<Integer> to) {
 		Map<Integer, Double> distMap = new HashMap<Integer, Double>();
-		int nrofNodesToFind = to.size();
-		
-		initWith(from);
-		Integer node = null;
-		
+		int[] targets = new int[to.size()];
+		int i = 0;
+		for (Integer n : to) {
+			targets[i++] = n;
+		}
+
+		Costs costs = calculateCosts(from, targets);
+		for (int j=0; j < costs.targets.length; j++) {
+			if (costs.costs[j] != INFINITY) {
+				distMap.put(costs.targets[j], costs.costs[j]);
+			}
+		}
+		return distMap;
+	}
+
+	/**
+	 * Returns the cost of the cheapest path from a host to another. The
+	 * costs are calculated to the given targets only. If the same source 
+	 * host is asked for again, the cached costs are used until 
+	 * {@link #invalidateCosts()} is called (destinations that were not 
+	 * targets get Double.MAX_VALUE). When the source host changes, the 
+	 * cached costs of the new source are used if they were calculated with
+	 * the same targets version; otherwise the costs are calculated again.
+	 * @param from The source host
+	 * @param to The destination host
+	 * @param targets The hosts to calculate the costs to (e.g., the
+	 * destinations of the messages in the buffer)
+	 * @param targetsVersion Version of the targets; must change every time
+	 * the targets change
+	 * @return The cost of the cheapest path or Double.MAX_VALUE if there is
+	 * no path to the destination or it is not one of the targets
+	 */
+	public double getCost(DTNHost from, DTNHost to,
+			Collection<DTNHost> targets, int targetsVersion) {
+		int source = from.getAddress();
+		Costs costs = null;
+		int cacheIndex = -1;
+
+		for (int i=0, n = this.cachedCosts.size(); i < n; i++) {
+			if (this.cachedCosts.get(i).source == source) {
+				cacheIndex = i;
+				costs = this.cachedCosts.get(i);
+				break;
+			}
+		}
+
+		if (costs == null || (source != this.lastSource && 
+				costs.targetsVersion != targetsVersion)) {
+			/* not cached or the targets have changed -> calculate costs */
+			int[] targetArray = new int[targets.size()];
+			int i = 0;
+			for (DTNHost h : targets) {
+				targetArray[i++] = h.getAddress();
+			}
+			costs = calculateCosts(source, targetArray);
+			costs.targetsVersion = targetsVersion;
+			if (cacheIndex >= 0) {
+				this.cachedCosts.set(cacheIndex, costs);
+			} else {
+				this.cachedCosts.add(costs);
+			}
+		}
+		this.lastSource = source;
+
+		int t = Arrays.binarySearch(costs.targets, to.getAddress());
+		return t >= 0 ? costs.costs[t] : INFINITY;
+	}
+
+	/**
+	 * Invalidates the cached costs. Must be called every time the meeting
+	 * probabilities change.
+	 */
+	public void invalidateCosts() {
+		this.cachedCosts.clear();
+		this.lastSource = -1;
+	}
+
+	/**
+	 * Calculates the costs from a node to the target nodes
+	 * @param from The address of the source node
+	 * @param targets The addresses of the target nodes (may contain
+	 * duplicates)
+	 * @return The costs (INFINITY for the targets that can't be reached)
+	 */
+	private Costs calculateCosts(int from, int[] targets) {
+		Costs result = new Costs(from, targets);
+		Search search = searches.get();
+		int nrofNodesToFind = result.targets.length;
+
+		search.initWith(from);
+
 		// always take the node with shortest distance
-		while ((node = unvisited.poll()) != null) {
-			if (to.contains(node)) {
+		while (search.heapSize > 0) {
+			int node = search.poll();
+			int t = Arrays.binarySearch(result.targets, node);
+			if (t >= 0) {
 				// found one of the requested nodes
-				distMap.put(node, distancesFromStart.get(node));
+				result.costs[t] = search.dist[node];
 				nrofNodesToFind--;
 				if (nrofNodesToFind == 0) {
 					break; // all requested nodes found
 				}
-			} 
-			
-			visited.add(node); // mark the node as visited
-			relax(node);       // add/update neighbor nodes' distances
+			}
+
+			relax(search, node); // add/update neighbor nodes' distances
 		}
-			
-		return distMap;
+
+		search.clear();
+		return result;
 	}
-	
+
 	/**
 	 * Relaxes the neighbors of a node (updates the shortest distances).
+	 * @param search The search state
 	 * @param node The node whose neighbors are relaxed
 	 */
-	private void relax(Integer node) {
-		double nodeDist = distancesFromStart.get(node);
-		Collection<Integer> neighbors;
-		
-		if (!this.probs.containsKey(node)) {
+	private void relax(Search search, int node) {
+		MeetingProbabilitySet mps = this.probs.get(node);
+		if (mps == null) {
 			return; // node's neighbors are not known
 		}
-		
-		neighbors =	this.probs.get(node).getAllProbs().keySet();
-		
-		for (Integer n : neighbors) {
-			if (visited.contains(n)) {
+
+		double nodeDist = search.dist[node];
+		for (Map.Entry<Integer, Double> e : mps.getAllProbs().entrySet()) {
+			int n = e.getKey();
+			search.ensureCapacity(n);
+			if (search.heapPos[n] == Search.VISITED) {
 				continue; // skip visited nodes
 			}
-						
+
 			// n node's distance from path's source node
-			double nDist = nodeDist + getDistance(node, n);
-			
-			if (distancesFromStart.get(n) > nDist) { 
+			double nDist = nodeDist + (1 - e.getValue());
+
+			if (search.dist[n] > nDist) {
 				// stored distance > found dist -> update
-				prevNodes.put(n, node); // for debugging
-				setDistance(n, nDist);
+				search.setDistance(n, nDist);
 			}
 		}
 	}
-	
-	/**
-	 * Sets the distance from source node to a node
-	 * @param n The node whose distance is set
-	 * @param distance The distance of the node from the source node
-	 */
-	private void setDistance(Integer n, double distance) {
-		unvisited.remove(n); // remove node from old place in the queue
-		distancesFromStart.put(n, distance); // update distance
-		unvisited.add(n); // insert node to the new place in the queue
-	}
-	
+
 	/**
-	 * Returns the "distance" between two nodes, i.e., the complement of the 
-	 * probability that the next node "from" meets is "to". Works only if there
-	 * exist a probability value for "from" meeting "to". 
-	 * @param from The first node
-	 * @param to The second node
-	 * @return The distance between the two nodes
+	 * Costs from a source node to a set of target nodes
 	 */
-	private double getDistance(Integer from, Integer to) {
-		assert probs.containsKey(from) : "Node " + from + " has not met " + to +
-			" (it has met nodes " + probs.keySet() + ")";
-		return ( 1 - probs.get(from).getProbFor(to) );
+	private static class Costs {
+		/** address of the source node */
+		private int source;
+		/** addresses of the target nodes in ascending order */
+		private int[] targets;
+		/** costs of the target nodes (in the same order as the targets) */
+		private double[] costs;
+		/** version of the targets the costs were calculated with */
+		private int targetsVersion;
+
+		private Costs(int source, int[] targets) {
+			int[] sorted = targets.clone();
+			Arrays.sort(sorted);
+			int n = 0; // remove duplicates
+			for (int i=0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[i-1]) {
+					sorted[n++] = sorted[i];
+				}
+			}
+			this.source = source;
+			this.targets = Arrays.copyOf(sorted, n);
+			this.costs = new double[n];
+			Arrays.fill(this.costs, INFINITY);
+		}
 	}
-	
+
 	/**
-	 * Comparator that compares two nodes by their distance from
-	 * the source node.
+	 * State of a search: node distances and the priority queue of the
+	 * unvisited nodes discovered so far, stored in arrays indexed by node
+	 * addresses. Only the entries of the nodes the search touched are
+	 * cleared after the search.
 	 */
-	private class DistanceComparator implements 
-		Comparator<Integer> {
-		
+	private static class Search {
+		/** heap position value for nodes that have not been discovered */
+		private static final int UNSEEN = -1;
+		/** heap position value for visited nodes (shortest path known) */
+		private static final int VISITED = -2;
+
+		/** distances of the nodes from the source node */
+		private double[] dist;
+		/** positions of the nodes in the heap (or UNSEEN/VISITED) */
+		private int[] heapPos;
+		/** binary heap of discovered but unvisited nodes, ordered by
+		 * distance (and address for equal distances) */
+		private int[] heap;
+		private int heapSize;
+		/** the nodes whose entries the search has changed */
+		private int[] touched;
+		private int nrofTouched;
+
+		private Search() {
+			this.dist = new double[0];
+			this.heapPos = new int[0];
+			this.heap = new int[0];
+			this.touched = new int[0];
+		}
+
 		/**
-		 * Compares two map nodes by their distance from the source node
-		 * @return -1, 0 or 1 if node1's distance is smaller, equal to, or
-		 * bigger than node2's distance
+		 * Initializes a new search with the first hop router node
+		 * @param firstHop The first hop router node
 		 */
-		public int compare(Integer node1, Integer node2) {
-			double dist1 = distancesFromStart.get(node1);
-			double dist2 = distancesFromStart.get(node2);
-			
-			if (dist1 > dist2) {
-				return 1;
-			}
-			else if (dist1 < dist2) {
-				return -1;
-			}
-			else {
-				return node1.compareTo(node2);
-			}
+		private void initWith(int firstHop) {
+			ensureCapacity(firstHop);
+			setDistance(firstHop, 0);
 		}
-	}
-	
-	/**
-	 * Simple Map implementation for storing distances. 
-	 */
-	private class DistanceMap {
-		private HashMap<Integer, Double> map;
-		
+
 		/**
-		 * Constructor. Creates an empty distance map
+		 * Makes sure the arrays have room for the given node
 		 */
-		public DistanceMap() {
-			this.map = new HashMap<Integer, Double>(); 
+		private void ensureCapacity(int node) {
+			if (node < this.dist.length) {
+				return;
+			}
+			int oldSize = this.dist.length;
+			int size = Math.max(node + 1, oldSize * 2);
+			this.dist = Arrays.copyOf(this.dist, size);
+			this.heapPos = Arrays.copyOf(this.heapPos, size);
+			this.heap = Arrays.copyOf(this.heap, size);
+			this.touched = Arrays.copyOf(this.touched, size);
+			Arrays.fill(this.dist, oldSize, size, INFINITY);
+			Arrays.fill(this.heapPos, oldSize, size, UNSEEN);
 		}
-		
+
 		/**
-		 * Returns the distance to a node. If no distance value
-		 * is found, returns {@link MaxPropDijkstra#INFINITY} as the value.
-		 * @param node The node whose distance is requested
-		 * @return The distance to that node
+		 * Clears the entries of the nodes the search touched
 		 */
-		public double get(Integer node) {
-			Double value = map.get(node);
-			if (value != null) {
-				return value;
+		private void clear() {
+			for (int i=0; i < this.nrofTouched; i++) {
+				this.dist[this.touched[i]] = INFINITY;
+				this.heapPos[this.touched[i]] = UNSEEN;
 			}
-			else {
-				return INFINITY;
+			this.nrofTouched = 0;
+			this.heapSize = 0;
+		}
+
+		/**
+		 * Sets the distance from source node to a node and moves the node
+		 * to its new place in the queue
+		 * @param n The node whose distance is set
+		 * @param distance The distance of the node from the source node
+		 */
+		private void setDistance(int n, double distance) {
+			this.dist[n] = distance;
+			if (this.heapPos[n] == UNSEEN) {
+				this.touched[this.nrofTouched++] = n;
+				this.heap[this.heapSize] = n;
+				this.heapPos[n] = this.heapSize++;
 			}
+			siftUp(this.heapPos[n]);
 		}
-		
+
 		/**
-		 * Puts a new distance value for a map node
-		 * @param node The node
-		 * @param distance Distance to that node
+		 * Removes and returns the node with the shortest distance from the
+		 * queue and marks it visited
+		 * @return The node
 		 */
-		public void  put(Integer node, double distance) {
-			map.put(node, distance);
+		private int poll() {
+			int node = this.heap[0];
+			this.heapSize--;
+			if (this.heapSize > 0) {
+				this.heap[0] = this.heap[this.heapSize];
+				this.heapPos[this.heap[0]] = 0;
+				siftDown(0);
+			}
+			this.heapPos[node] = VISITED;
+			return node;
 		}
-		
+
 		/**
-		 * Returns a string representation of the map's contents
-		 * @return a string representation of the map's contents
+		 * Returns true if node1 should be before node2 in the queue
 		 */
-		public String toString() {
-			return map.toString();
+		private boolean isBefore(int node1, int node2) {
+			double dist1 = this.dist[node1];
+			double dist2 = this.dist[node2];
+			return dist1 < dist2 || (dist1 == dist2 && node1 < node2);
+		}
+
+		private void siftUp(int pos) {
+			int node = this.heap[pos];
+			while (pos > 0) {
+				int parent = (pos - 1) / 2;
+				if (!isBefore(node, this.heap[parent])) {
+					break;
+				}
+				this.heap[pos] = this.heap[parent];
+				this.heapPos[this.heap[pos]] = pos;
+				pos = parent;
+			}
+			this.heap[pos] = node;
+			this.heapPos[node] = pos;
+		}
+
+		private void siftDown(int pos) {
+			int node = this.heap[pos];
+			while (true) {
+				int child = 2 * pos + 1;
+				if (child >= this.heapSize) {
+					break;
+				}
+				if (child + 1 < this.heapSize &&
+						isBefore(this.heap[child + 1], this.heap[child])) {
+					child++;
+				}
+				if (!isBefore(this.heap[child], node)) {
+					break;
+				}
+				this.heap[pos] = this.heap[child];
+				this.heapPos[this.heap[pos]] = pos;
+				pos = child;
+			}
+			this.heap[pos] = node;
+			this.heapPos[node] = pos;
 		}
 	}
-}
\ No newline at end of file
+}
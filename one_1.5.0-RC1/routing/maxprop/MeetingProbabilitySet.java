@@ -12,7 +12,10 @@ import core.SimClock;
 
 /**
  * Class for storing and manipulating the meeting probabilities for the MaxProp
- * router module.
+ * router module. Replicas of a set are immutable snapshots of its values at
+ * the time of the replication (the last update time tells which snapshot is
+ * newer). A snapshot is shared by reference when it is replicated again, so
+ * the sets received from other hosts can be passed on without copying.
  */
 public class MeetingProbabilitySet {
 	public static final int INFINITE_SET_SIZE = Integer.MAX_VALUE;
@@ -23,6 +26,8 @@ public class MeetingProbabilitySet {
 	/** the alpha parameter */
 	private double alpha;
     private int maxSetSize;
+	/** True if this set is an immutable snapshot (that can be shared) */
+	private boolean snapshot;
 	
 	/**
 	 * Constructor. Creates a probability set with empty node-probability
@@ -75,6 +80,7 @@ public class MeetingProbabilitySet {
 	public void updateMeetingProbFor(Integer index) {
         Map.Entry<Integer, Double> smallestEntry = null;
         double smallestValue = Double.MAX_VALUE;
+		assert !this.snapshot : "Can't update a snapshot";
 
 		this.lastUpdateTime = SimClock.getTime();
 		
@@ -104,6 +110,7 @@ public class MeetingProbabilitySet {
 	}
 	
 	public void updateMeetingProbFor(Integer index, double iet)	{
+		assert !this.snapshot : "Can't update a snapshot";
 		probs.put(index, iet);
 	}
 	
@@ -123,7 +130,8 @@ public class MeetingProbabilitySet {
 	}
 	
 	/**
-	 * Returns a reference to the probability map of this probability set
+	 * Returns a reference to the probability map of this probability set.
+	 * The map must not be modified.
 	 * @return a reference to the probability map of this probability set
 	 */
 	public Map<Integer, Double> getAllProbs() {
@@ -146,10 +154,16 @@ public class MeetingProbabilitySet {
 	}
 	
 	/**
-	 * Returns a deep copy of the probability set
-	 * @return a deep copy of the probability set
+	 * Returns an immutable snapshot of the probability set. The snapshot
+	 * is a deep copy of the set, or this set itself if it already is a
+	 * snapshot (snapshots are never modified so they can be shared).
+	 * @return an immutable snapshot of the probability set
 	 */
 	public MeetingProbabilitySet replicate() {
+		if (this.snapshot) {
+			return this;
+		}
+		
 		MeetingProbabilitySet replica = new MeetingProbabilitySet(
 				this.maxSetSize, alpha);
 		
@@ -159,6 +173,7 @@ public class MeetingProbabilitySet {
 		}
 		
 		replica.lastUpdateTime = this.lastUpdateTime;
+		replica.snapshot = true;
 		return replica;
 	}
 	
@@ -0,0 +1,198 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import core.Message;
+
+/**
+ * Index of the messages in a router's buffer in the order they should be
+ * dropped when the buffer is full. Supported drop policies are FIFO
+ * (the message received first is dropped first), TTL (the message that
+ * expires first), largest first and MOFO (the message this host has
+ * forwarded most times). Messages with equal values are dropped in the
+ * order they were added. Adding and removing messages take O(log n) time.
+ * The values are read when a message is added, so they must not change
+ * while the message is in the buffer (except the forward count, which is
+ * updated with {@link #forwarded(String)}).
+ */
+public class DropPolicyIndex implements Iterable<Message> {
+	/** drop policy name for dropping the oldest received message first
+	 * ({@value}) */
+	public static final String FIFO = "fifo";
+	/** drop policy name for dropping the message that expires first
+	 * ({@value}) */
+	public static final String TTL = "ttl";
+	/** drop policy name for dropping the largest message first ({@value}) */
+	public static final String LARGEST = "largest";
+	/** drop policy name for dropping the most forwarded message first
+	 * ({@value}) */
+	public static final String MOFO = "mofo";
+
+	private static final String[] POLICIES = {FIFO, TTL, LARGEST, MOFO};
+	private static final int FIFO_POLICY = 0;
+	private static final int TTL_POLICY = 1;
+	private static final int LARGEST_POLICY = 2;
+	private static final int MOFO_POLICY = 3;
+
+	private int policy;
+	/** the messages' entries in the drop order */
+	private TreeSet<Entry> order;
+	/** the messages' entries by message ID */
+	private HashMap<String, Entry> entries;
+	/** running number of the added entries (for ordering equal values) */
+	private long nextSeqNo;
+
+	/**
+	 * Constructor.
+	 * @param policy Name of the drop policy
+	 * @throws IllegalArgumentException if the policy is not known
+	 * @see #isValidPolicy(String)
+	 */
+	public DropPolicyIndex(String policy) {
+		this.policy = indexOf(policy);
+		if (this.policy < 0) {
+			throw new IllegalArgumentException("Unknown drop policy " + policy);
+		}
+		this.order = new TreeSet<Entry>();
+		this.entries = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns true if the given name is a supported drop policy
+	 * @param policy Name of the policy
+	 * @return True if the policy is supported
+	 */
+	public static boolean isValidPolicy(String policy) {
+		return indexOf(policy) >= 0;
+	}
+
+	private static int indexOf(String policy) {
+		for (int i=0; i < POLICIES.length; i++) {
+			if (POLICIES[i].equalsIgnoreCase(policy)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a message to the index. A message with the same ID is replaced.
+	 * @param m The message to add
+	 */
+	public void add(Message m) {
+		remove(m.getId());
+		Entry e = new Entry(m, this.nextSeqNo++);
+		e.value = valueOf(m, 0);
+		this.entries.put(m.getId(), e);
+		this.order.add(e);
+	}
+
+	/**
+	 * Removes a message from the index
+	 * @param id ID of the message to remove
+	 */
+	public void remove(String id) {
+		Entry e = this.entries.remove(id);
+		if (e != null) {
+			this.order.remove(e);
+		}
+	}
+
+	/**
+	 * Tells the index that a message was forwarded (successfully sent to
+	 * another host) once more
+	 * @param id ID of the message
+	 */
+	public void forwarded(String id) {
+		Entry e = this.entries.get(id);
+		if (e == null) {
+			return;
+		}
+		e.forwards++;
+		if (this.policy == MOFO_POLICY) {
+			this.order.remove(e);
+			e.value = valueOf(e.message, e.forwards);
+			this.order.add(e);
+		}
+	}
+
+	/**
+	 * Returns the value of a message that defines its place in the drop
+	 * order (smaller value is dropped first)
+	 */
+	private double valueOf(Message m, int forwards) {
+		switch (this.policy) {
+		case FIFO_POLICY:
+			return m.getReceiveTime();
+		case TTL_POLICY:
+			return m.getExpiryTime();
+		case LARGEST_POLICY:
+			return -m.getSize();
+		case MOFO_POLICY:
+			return -forwards;
+		default:
+			throw new IllegalStateException("Unknown policy " + this.policy);
+		}
+	}
+
+	/**
+	 * Returns the message that should be dropped first
+	 * @return The message or null if the index is empty
+	 */
+	public Message first() {
+		if (this.order.isEmpty()) {
+			return null;
+		}
+		return this.order.first().message;
+	}
+
+	/**
+	 * Returns an iterator over the messages in the drop order (the message
+	 * that should be dropped first first). The index must not be modified
+	 * while iterating.
+	 */
+	public Iterator<Message> iterator() {
+		final Iterator<Entry> i = this.order.iterator();
+		return new Iterator<Message>() {
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+			public Message next() {
+				return i.next().message;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * A message and its place in the drop order
+	 */
+	private static class Entry implements Comparable<Entry> {
+		private Message message;
+		private long seqNo;
+		private double value;
+		/** how many times the message has been forwarded */
+		private int forwards;
+
+		private Entry(Message message, long seqNo) {
+			this.message = message;
+			this.seqNo = seqNo;
+		}
+
+		public int compareTo(Entry other) {
+			int c = Double.compare(this.value, other.value);
+			if (c == 0) {
+				return Long.compare(this.seqNo, other.seqNo);
+			}
+			return c;
+		}
+	}
+}
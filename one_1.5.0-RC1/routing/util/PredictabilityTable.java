@@ -0,0 +1,301 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.util;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import core.DTNHost;
+import core.DTNSim;
+import core.Settings;
+import core.SettingsError;
+import core.World;
+
+/**
+ * Table of delivery predictabilities (or other values that decay over
+ * time) for hosts. The table can also be used for per-host values that
+ * are never aged (e.g., times of the last encounter). Aging all the values
+ * takes constant time: the table stores the values divided by a common
+ * scale factor and aging only multiplies the scale. The stored values are
+ * rescaled only when the scale gets so small that the values could lose
+ * precision.
+ * <P>
+ * The values are the same as with aging every value separately only up to
+ * floating point rounding (<CODE>v*(m1*m2)</CODE> instead of 
+ * <CODE>(v*m1)*m2</CODE>), so two values that would be equal can differ
+ * in the last bits. Routing decisions that compare values should use 
+ * {@link #isGreater(double, double)} so that the rounding errors don't
+ * change the decisions.
+ * <P>
+ * The values are stored in primitive arrays. While all the hosts of the
+ * table have an address smaller than the {@link #DENSE_TABLE_HOSTS_S}
+ * setting's value, the arrays are indexed directly by the host address
+ * (dense table). When a host with a larger address is added, the table
+ * switches to an open addressing hash table (sparse table) that takes
+ * memory only for the hosts that are in the table.
+ */
+public class PredictabilityTable {
+	/**
+	 * Maximum host address count of dense tables -setting id ({@value}).
+	 * Used in {@link World#OPTIMIZATION_SETTINGS_NS} name space.
+	 * Tables that only have hosts with smaller addresses are stored as
+	 * arrays indexed by the host address. Dense tables are faster but every
+	 * table of every host takes memory for all the hosts, so for very large
+	 * scenarios the value should be smaller than the number of hosts.
+	 * Default value is {@link #DEF_DENSE_TABLE_HOSTS}.
+	 */
+	public static final String DENSE_TABLE_HOSTS_S = "denseTableHosts";
+	/** default value for the dense table host count ({@value}) */
+	public static final int DEF_DENSE_TABLE_HOSTS = 2048;
+
+	/** when the scale gets smaller than this, the values are rescaled */
+	private static final double MIN_SCALE = 1e-100;
+	/** relative difference of values that is considered rounding error */
+	private static final double PRECISION = 1e-9;
+	/** initial capacity of a table */
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static int denseTableHosts;
+
+	static {
+		DTNSim.registerForReset(PredictabilityTable.class.getCanonicalName());
+		reset();
+	}
+
+	/** the hosts of the table (null for empty slots) */
+	private DTNHost[] hosts;
+	/** the values of the hosts divided by the scale */
+	private double[] values;
+	/** number of hosts in the table */
+	private int size;
+	/** is the table indexed by host address (or hashed) */
+	private boolean dense;
+	/** the common scale factor of the values */
+	private double scale;
+	/** number of values put to the table */
+	private int version;
+
+	/**
+	 * Constructor. Creates an empty table.
+	 */
+	public PredictabilityTable() {
+		this.hosts = new DTNHost[Math.min(INITIAL_CAPACITY, denseTableHosts)];
+		this.values = new double[this.hosts.length];
+		this.dense = true;
+		this.size = 0;
+		this.scale = 1;
+	}
+
+	/**
+	 * Reads the dense table size setting (called between batch runs).
+	 */
+	public static void reset() {
+		Settings s = new Settings(World.OPTIMIZATION_SETTINGS_NS);
+		denseTableHosts = s.getInt(DENSE_TABLE_HOSTS_S, DEF_DENSE_TABLE_HOSTS);
+		if (denseTableHosts < 0) {
+			throw new SettingsError("Negative value (" + denseTableHosts +
+					") for " + World.OPTIMIZATION_SETTINGS_NS + "." +
+					DENSE_TABLE_HOSTS_S);
+		}
+	}
+
+	/**
+	 * Returns the value for a host
+	 * @param host The host
+	 * @return The value or 0 if the table has no value for the host
+	 */
+	public double get(DTNHost host) {
+		int i = indexOf(host);
+		if (i < 0) {
+			return 0;
+		}
+		return this.values[i] * this.scale;
+	}
+
+	/**
+	 * Returns true if a value is greater than another value by more than
+	 * the rounding errors of aging the values
+	 * @param value The value
+	 * @param than The value to compare to (non-negative)
+	 * @return True if value is greater than the other value
+	 */
+	public static boolean isGreater(double value, double than) {
+		return value - than > than * PRECISION;
+	}
+	
+	/**
+	 * Returns true if the table has a value for the host
+	 * @param host The host
+	 * @return True if the host is in the table
+	 */
+	public boolean contains(DTNHost host) {
+		return indexOf(host) >= 0;
+	}
+
+	/**
+	 * Sets the value for a host
+	 * @param host The host
+	 * @param value The new value
+	 */
+	public void put(DTNHost host, double value) {
+		int address = host.getAddress();
+		if (this.dense && address >= this.hosts.length) {
+			if (address < denseTableHosts) {
+				resize(Math.min(Math.max(address + 1, this.hosts.length * 2),
+						denseTableHosts));
+			} else {
+				this.dense = false;
+				resize(sparseCapacity(this.size + 1));
+			}
+		} else if (!this.dense && (this.size + 1) * 2 > this.hosts.length) {
+			resize(this.hosts.length * 2);
+		}
+
+		int i = slotOf(host);
+		if (this.hosts[i] == null) {
+			this.hosts[i] = host;
+			this.size++;
+		}
+		this.values[i] = value / this.scale;
+		this.version++;
+	}
+
+	/**
+	 * Multiplies all the values by the same multiplier (e.g., when aging
+	 * predictabilities)
+	 * @param mult The multiplier (0 < mult <= 1)
+	 */
+	public void age(double mult) {
+		this.scale *= mult;
+		if (this.scale < MIN_SCALE) {
+			for (int i=0; i < this.values.length; i++) {
+				this.values[i] *= this.scale;
+			}
+			this.scale = 1;
+		}
+	}
+
+	/**
+	 * Returns the hosts that have a value in the table
+	 * @return The hosts (the table must not be modified while iterating)
+	 */
+	public Collection<DTNHost> getHosts() {
+		return new AbstractCollection<DTNHost>() {
+			public Iterator<DTNHost> iterator() {
+				return new HostIterator();
+			}
+			public int size() {
+				return PredictabilityTable.this.size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the version of the table. The version changes every time a
+	 * value is put to the table but not when the values are aged (aging
+	 * does not change the order of the values).
+	 * @return The version of the table
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns the number of hosts that have a value in the table
+	 * @return The number of hosts
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the slot index of a host or -1 if the host is not in the table
+	 */
+	private int indexOf(DTNHost host) {
+		if (this.dense && host.getAddress() >= this.hosts.length) {
+			return -1;
+		}
+		int i = slotOf(host);
+		return this.hosts[i] == null ? -1 : i;
+	}
+
+	/**
+	 * Returns the slot of a host: the slot that has the host or, if the host
+	 * is not in the table, the (free) slot where it would be put
+	 */
+	private int slotOf(DTNHost host) {
+		if (this.dense) {
+			return host.getAddress();
+		}
+		int mask = this.hosts.length - 1;
+		int i = (host.getAddress() * 0x9E3779B9) & mask;
+		while (this.hosts[i] != null && this.hosts[i] != host) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns a large enough (power of two) hash table size for the given
+	 * number of hosts
+	 */
+	private static int sparseCapacity(int hostCount) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < hostCount * 2) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Moves the hosts and values to new arrays of the given size
+	 */
+	private void resize(int capacity) {
+		DTNHost[] oldHosts = this.hosts;
+		double[] oldValues = this.values;
+		this.hosts = new DTNHost[capacity];
+		this.values = new double[capacity];
+		for (int i=0; i < oldHosts.length; i++) {
+			if (oldHosts[i] != null) {
+				int slot = slotOf(oldHosts[i]);
+				this.hosts[slot] = oldHosts[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Iterator over the hosts in the table's slots
+	 */
+	private class HostIterator implements Iterator<DTNHost> {
+		private int next = nextSlot(0);
+
+		private int nextSlot(int from) {
+			while (from < hosts.length && hosts[from] == null) {
+				from++;
+			}
+			return from;
+		}
+
+		public boolean hasNext() {
+			return this.next < hosts.length;
+		}
+
+		public DTNHost next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			DTNHost host = hosts[this.next];
+			this.next = nextSlot(this.next + 1);
+			return host;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
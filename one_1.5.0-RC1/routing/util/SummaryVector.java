@@ -0,0 +1,135 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package routing.util;
+
+/**
+ * Summary vector of the messages a router carries: a bit set of the
+ * messages' integer IDs ({@link core.Message#getIntId()}). The vector is
+ * updated as messages are added and removed, and two vectors can be
+ * compared a word (64 messages) at a time to find out, e.g., if a peer
+ * already has all the messages of a router. The vector keeps track of its
+ * lowest and highest non-empty word, so comparisons only go through the
+ * words between the lowest and highest ID the vector contains.
+ */
+public class SummaryVector {
+	/** the bits of the vector; bit i of words[i/64] is message ID i (the
+	 * array is not shrunk, so it takes one bit per message ID created
+	 * before the largest ID ever added) */
+	private long[] words;
+	/** number of set bits */
+	private int size;
+	/** index of the lowest non-empty word (Integer.MAX_VALUE if empty) */
+	private int firstWord;
+	/** index of the highest non-empty word (-1 if empty) */
+	private int lastWord;
+
+	/**
+	 * Constructor. Creates an empty vector.
+	 */
+	public SummaryVector() {
+		this.words = new long[1];
+		this.size = 0;
+		this.firstWord = Integer.MAX_VALUE;
+		this.lastWord = -1;
+	}
+
+	/**
+	 * Adds a message ID to the vector
+	 * @param intId The integer ID of the message
+	 */
+	public void add(int intId) {
+		int w = intId >>> 6;
+		if (w >= this.words.length) {
+			long[] newWords = new long[Math.max(w + 1, this.words.length * 2)];
+			System.arraycopy(this.words, 0, newWords, 0, this.words.length);
+			this.words = newWords;
+		}
+		long bit = 1L << intId;
+		if ((this.words[w] & bit) == 0) {
+			this.words[w] |= bit;
+			this.size++;
+			if (w < this.firstWord) {
+				this.firstWord = w;
+			}
+			if (w > this.lastWord) {
+				this.lastWord = w;
+			}
+		}
+	}
+
+	/**
+	 * Removes a message ID from the vector
+	 * @param intId The integer ID of the message
+	 */
+	public void remove(int intId) {
+		int w = intId >>> 6;
+		long bit = 1L << intId;
+		if (w < this.words.length && (this.words[w] & bit) != 0) {
+			this.words[w] &= ~bit;
+			this.size--;
+			if (this.words[w] != 0) {
+				return;
+			}
+			if (this.size == 0) { // no non-empty words left
+				this.firstWord = Integer.MAX_VALUE;
+				this.lastWord = -1;
+				return;
+			}
+			/* the other words of the range still have some bits set */
+			if (w == this.firstWord) {
+				while (this.words[this.firstWord] == 0) {
+					this.firstWord++;
+				}
+			}
+			else if (w == this.lastWord) {
+				while (this.words[this.lastWord] == 0) {
+					this.lastWord--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the vector contains the message ID
+	 * @param intId The integer ID of the message
+	 * @return True if the ID is in the vector
+	 */
+	public boolean contains(int intId) {
+		int w = intId >>> 6;
+		return w < this.words.length && (this.words[w] & (1L << intId)) != 0;
+	}
+
+	/**
+	 * Returns the number of message IDs in the vector
+	 * @return The number of IDs
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns true if all the message IDs of this vector are also in the
+	 * other vector (i.e., the set difference this - other is empty). Goes
+	 * through only the words between this vector's lowest and highest ID.
+	 * @param other The other vector
+	 * @return True if the other vector contains all IDs of this vector
+	 */
+	public boolean isSubsetOf(SummaryVector other) {
+		if (this.size == 0) {
+			return true;
+		}
+		if (this.size > other.size || this.firstWord < other.firstWord ||
+				this.lastWord > other.lastWord) {
+			return false; // other has fewer IDs or none in some of our words
+		}
+		long[] otherWords = other.words;
+		for (int i=this.firstWord; i <= this.lastWord; i++) {
+			if ((this.words[i] & ~otherWords[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
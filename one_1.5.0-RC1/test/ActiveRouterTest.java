@@ -0,0 +1,242 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import routing.ActiveRouter;
+import routing.MessageRouter;
+import routing.util.DropPolicyIndex;
+import util.Tuple;
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+import core.Settings;
+
+/**
+ * Tests for the common functionality of the ActiveRouter (with a router
+ * that doesn't send anything on its own).
+ */
+public class ActiveRouterTest extends AbstractRouterTest {
+
+	private static int TTL = 300;
+	/** simulation time when the messages created at time 0 expire */
+	private static final double EXPIRY_TIME = TTL * 60;
+	/** time between the host updates */
+	private static final double UPDATE_INTERVAL = 0.1;
+
+	@Override
+	public void setUp() throws Exception {
+		ts.putSetting(MessageRouter.MSG_TTL_S, ""+TTL);
+		ts.putSetting(MessageRouter.B_SIZE_S, ""+BUFFER_SIZE);
+		setRouterProto(new TestRouter(ts));
+		super.setUp();
+	}
+
+	/**
+	 * Creates messages from h0 to h1-h5 and removes and re-creates some of
+	 * them so that the buffer order differs from the creation order
+	 */
+	private void createMessages() {
+		DTNHost[] to = {h1, h2, h3, h4, h5};
+		for (int i=0; i < 20; i++) {
+			h0.createNewMessage(new Message(h0, to[(i * 3) % to.length],
+					"M" + i, 1));
+		}
+		h0.deleteMessage("M4", true);
+		h0.deleteMessage("M7", false);
+		/* a re-created message goes to the end of the buffer */
+		h0.createNewMessage(new Message(h0, h1, "M2", 1));
+		h0.createNewMessage(new Message(h0, h3, "M4", 1));
+	}
+
+	/**
+	 * Returns the message-connection tuples of the host's router by going
+	 * through all the messages in the buffer's order
+	 */
+	private List<Tuple<Message, Connection>> scanForConnected(DTNHost host) {
+		List<Tuple<Message, Connection>> tuples =
+			new ArrayList<Tuple<Message, Connection>>();
+		for (Message m : host.getMessageCollection()) {
+			for (Connection con : host.getConnections()) {
+				if (m.getTo() == con.getOtherNode(host)) {
+					tuples.add(new Tuple<Message, Connection>(m, con));
+				}
+			}
+		}
+		return tuples;
+	}
+
+	private void assertTuples(List<Tuple<Message, Connection>> expected,
+			List<Tuple<Message, Connection>> tuples) {
+		assertEquals(expected.size(), tuples.size());
+		for (int i=0; i < expected.size(); i++) {
+			assertSame(expected.get(i).getKey(), tuples.get(i).getKey());
+			assertSame(expected.get(i).getValue(), tuples.get(i).getValue());
+		}
+	}
+
+	public void testMessagesForConnected() {
+		createMessages();
+		TestRouter r = (TestRouter)h0.getRouter();
+		assertEquals(0, r.messagesForConnected().size());
+
+		h0.connect(h3);
+		List<Tuple<Message, Connection>> tuples = r.messagesForConnected();
+		assertEquals(4, tuples.size());
+		assertTuples(scanForConnected(h0), tuples);
+
+		h0.connect(h1);
+		h0.connect(h4);
+		h6.connect(h0);
+		tuples = r.messagesForConnected();
+		assertEquals(13, tuples.size());
+		assertTuples(scanForConnected(h0), tuples);
+		assertEquals("M2", tuples.get(tuples.size() - 2).getKey().getId());
+		assertEquals("M4", tuples.get(tuples.size() - 1).getKey().getId());
+	}
+
+	public void testRequestDeliverableMessages() {
+		createMessages();
+		h0.connect(h1);
+		h0.connect(h3);
+		mc.reset();
+
+		/* the first message to h3 in the buffer's order is sent */
+		Connection con = h0.getConnections().get(1);
+		assertSame(h3, con.getOtherNode(h0));
+		assertTrue(h0.requestDeliverableMessages(con));
+		checkTransferStart(h0, h3, "M9");
+
+		/* nothing else is sent while transferring */
+		assertFalse(h0.requestDeliverableMessages(h0.getConnections().get(0)));
+	}
+
+	/**
+	 * Checks that the next event is the drop of the message
+	 */
+	private void checkDropped(DTNHost host, String msgId) {
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_DELETE, mc.getLastType());
+		assertEquals(msgId, mc.getLastMsg().getId());
+		assertEquals(host, mc.getLastFrom());
+		assertTrue(mc.getLastDropped());
+	}
+
+	public void testDropAtExpiryTime() {
+		h0.createNewMessage(new Message(h0, h1, msgId1, 1));
+		clock.setTime(EXPIRY_TIME / 2);
+		h0.createNewMessage(new Message(h0, h1, msgId2, 1));
+		mc.reset();
+
+		clock.setTime(EXPIRY_TIME - UPDATE_INTERVAL);
+		h0.getRouter().update();
+		assertFalse(mc.next());
+		assertTrue(h0.getRouter().hasMessage(msgId1));
+
+		clock.setTime(EXPIRY_TIME);
+		h0.getRouter().update();
+		checkDropped(h0, msgId1);
+		assertFalse(mc.next());
+		assertTrue(h0.getRouter().hasMessage(msgId2));
+	}
+
+	public void testSendingMessageSurvivesExpiry() {
+		/* the transfer takes 5 seconds and ends after the expiry time */
+		h0.createNewMessage(new Message(h0, h1, msgId1, 50));
+		h0.createNewMessage(new Message(h0, h2, msgId2, 1));
+		clock.setTime(EXPIRY_TIME - 2);
+		h0.connect(h1);
+		mc.reset();
+		assertTrue(h0.requestDeliverableMessages(h0.getConnections().get(0)));
+		checkTransferStart(h0, h1, msgId1);
+
+		clock.setTime(EXPIRY_TIME);
+		h0.getRouter().update();
+		checkDropped(h0, msgId2);
+		assertFalse(mc.next());
+		assertTrue(h0.getRouter().hasMessage(msgId1));
+
+		/* dropped right after the transfer is done */
+		clock.setTime(EXPIRY_TIME + 3);
+		h0.getRouter().update();
+		assertTrue(mc.next());
+		assertEquals(mc.TYPE_RELAY, mc.getLastType());
+		checkDropped(h0, msgId1);
+		assertFalse(mc.next());
+		assertFalse(h0.getRouter().hasMessage(msgId1));
+	}
+
+	public void testInfiniteTtl() throws Exception {
+		h0.createNewMessage(new Message(h0, h1, msgId2, 1));
+		assertTrue(getExpiryIndex(h0).iterator().hasNext());
+
+		ts.putSetting(MessageRouter.MSG_TTL_S, "" + Message.INFINITE_TTL);
+		try {
+			utils.setMessageRouterProto(new TestRouter(ts));
+			DTNHost host = utils.createHost(c0, "hInf");
+			host.createNewMessage(new Message(host, h1, msgId1, 1));
+			assertEquals(Message.INFINITE_TTL,
+					host.getMessageCollection().iterator().next().getInitialTtl());
+			assertFalse(getExpiryIndex(host).iterator().hasNext());
+
+			clock.setTime(Integer.MAX_VALUE);
+			host.getRouter().update();
+			assertTrue(host.getRouter().hasMessage(msgId1));
+		} finally {
+			ts.putSetting(MessageRouter.MSG_TTL_S, "" + TTL);
+		}
+	}
+
+	/**
+	 * Returns the (private) index of the expiring messages of the host's
+	 * router
+	 */
+	private DropPolicyIndex getExpiryIndex(DTNHost host) throws Exception {
+		Field f = ActiveRouter.class.getDeclaredField("expiryIndex");
+		f.setAccessible(true);
+		return (DropPolicyIndex)f.get(host.getRouter());
+	}
+
+	public void testDeniedTtlAtBoundary() {
+		Message m = new Message(h1, h2, msgId1, 1);
+		h1.createNewMessage(m);
+		Message toH0 = new Message(h1, h0, msgId2, 1);
+		h1.createNewMessage(toH0);
+
+		clock.setTime(EXPIRY_TIME - UPDATE_INTERVAL);
+		assertEquals(MessageRouter.RCV_OK, h3.receiveMessage(m, h1));
+
+		clock.setTime(EXPIRY_TIME);
+		assertEquals(MessageRouter.DENIED_TTL, h0.receiveMessage(m, h1));
+		/* the final recipient accepts expired messages */
+		assertEquals(MessageRouter.RCV_OK, h0.receiveMessage(toH0, h1));
+	}
+
+	/**
+	 * Active router that doesn't send messages on its own and gives the
+	 * tests access to its methods
+	 */
+	private static class TestRouter extends ActiveRouter {
+		public TestRouter(Settings s) {
+			super(s);
+		}
+
+		protected TestRouter(TestRouter r) {
+			super(r);
+		}
+
+		public List<Tuple<Message, Connection>> messagesForConnected() {
+			return getMessagesForConnected();
+		}
+
+		@Override
+		public MessageRouter replicate() {
+			return new TestRouter(this);
+		}
+	}
+}
@@ -39,6 +39,7 @@ public class AllTests {
 		suite.addTestSuite(ContactTimesReportTest.class);
 		suite.addTestSuite(TotalContactTimeReportTest.class);
 		suite.addTestSuite(EpidemicRouterTest.class);
+		suite.addTestSuite(ActiveRouterTest.class);
 		suite.addTestSuite(ProphetRouterTest.class);
 		suite.addTestSuite(SettingsTest.class);
 		suite.addTestSuite(DijkstraPathFinderTest.class);
@@ -49,6 +50,12 @@ public class AllTests {
 		suite.addTestSuite(ScheduledUpdatesQueueTest.class);
 		suite.addTestSuite(MessageTest.class);
 		suite.addTestSuite(ModuleCommunicationBusTest.class);
+		suite.addTestSuite(ShufflerTest.class);
+		suite.addTestSuite(DropPolicyIndexTest.class);
+		suite.addTestSuite(SummaryVectorTest.class);
+		suite.addTestSuite(PredictabilityTableTest.class);
+		suite.addTestSuite(WorldModesTest.class);
+		suite.addTestSuite(ConnectivityQuadTreeTest.class);
 		//$JUnit-END$
 		return suite;
 	}
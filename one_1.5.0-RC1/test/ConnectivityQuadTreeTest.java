@@ -0,0 +1,184 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer.PairVisitor;
+import interfaces.ConnectivityQuadTree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import core.Coord;
+import core.DTNHost;
+import core.NetworkInterface;
+import core.World;
+
+/**
+ * Tests for the quadtree connectivity optimizer. The near interfaces and
+ * pairs the tree finds are compared to the ones found by checking all
+ * the interfaces.
+ */
+public class ConnectivityQuadTreeTest extends TestCase {
+	private static final double RANGE = 10;
+	private static final int WORLD_SIZE = 1000;
+	private static final int LEAF_CAPACITY = 4;
+	private static final int NROF_HOSTS = 200;
+
+	private ConnectivityQuadTree tree;
+	private List<DTNHost> hosts;
+	private List<NetworkInterface> interfaces;
+	private Random rng;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		TestSettings ts = new TestSettings();
+		ts.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." +
+				ConnectivityQuadTree.LEAF_CAPACITY_S, "" + LEAF_CAPACITY);
+		ConnectivityGrid.reset();
+		ConnectivityQuadTree.reset();
+		TestUtils utils = new TestUtils(null, null, ts);
+
+		this.rng = new Random(1);
+		this.hosts = new ArrayList<DTNHost>();
+		this.interfaces = new ArrayList<NetworkInterface>();
+		/* a separate tree, so the interfaces' own optimizers don't matter */
+		this.tree = ConnectivityQuadTree.ConnectivityQuadTreeFactory(-1,
+				RANGE);
+		for (int i=0; i < NROF_HOSTS; i++) {
+			DTNHost host = utils.createHost(randomCoord(0, WORLD_SIZE));
+			NetworkInterface ni = host.getInterfaces().get(0);
+			hosts.add(host);
+			interfaces.add(ni);
+			tree.addInterface(ni);
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		new TestSettings();
+		ConnectivityQuadTree.reset();
+	}
+
+	private Coord randomCoord(double min, double max) {
+		return new Coord(min + rng.nextDouble() * (max - min),
+				min + rng.nextDouble() * (max - min));
+	}
+
+	/**
+	 * Moves a host to a new location and updates its location to the tree
+	 */
+	private void move(int index, Coord c) {
+		hosts.get(index).setLocation(c);
+		tree.updateLocation(interfaces.get(index));
+	}
+
+	private boolean isNear(NetworkInterface ni1, NetworkInterface ni2) {
+		Coord c1 = ni1.getLocation();
+		Coord c2 = ni2.getLocation();
+		return Math.abs(c1.getX() - c2.getX()) <= RANGE &&
+			Math.abs(c1.getY() - c2.getY()) <= RANGE;
+	}
+
+	/**
+	 * Checks that the tree finds the same near interfaces and pairs as
+	 * checking all the interfaces does
+	 */
+	private void assertSameAsBruteForce() {
+		Set<String> expectedPairs = new HashSet<String>();
+		for (NetworkInterface ni : tree.getAllInterfaces()) {
+			Set<NetworkInterface> expected = new HashSet<NetworkInterface>();
+			for (NetworkInterface other : tree.getAllInterfaces()) {
+				if (isNear(ni, other)) {
+					expected.add(other);
+					if (ni != other) {
+						expectedPairs.add(pairKey(ni, other));
+					}
+				}
+			}
+			List<NetworkInterface> near =
+				new ArrayList<NetworkInterface>(tree.getNearInterfaces(ni));
+			assertEquals(expected.size(), near.size()); // no duplicates
+			assertEquals(expected, new HashSet<NetworkInterface>(near));
+		}
+
+		final List<String> pairs = new ArrayList<String>();
+		tree.visitNearPairs(new PairVisitor() {
+			public void visit(NetworkInterface ni1, NetworkInterface ni2) {
+				assertNotSame(ni1, ni2);
+				pairs.add(pairKey(ni1, ni2));
+			}
+		});
+		assertEquals(expectedPairs.size(), pairs.size()); // once per pair
+		assertEquals(expectedPairs, new HashSet<String>(pairs));
+	}
+
+	private String pairKey(NetworkInterface ni1, NetworkInterface ni2) {
+		int a1 = ni1.getHost().getAddress();
+		int a2 = ni2.getHost().getAddress();
+		return Math.min(a1, a2) + "-" + Math.max(a1, a2);
+	}
+
+	public void testRandomLocations() {
+		assertSameAsBruteForce();
+	}
+
+	public void testSplitAndMerge() {
+		/* crowd all hosts to a small area (splits the nodes)... */
+		for (int i=0; i < NROF_HOSTS; i++) {
+			move(i, randomCoord(500, 560));
+		}
+		assertSameAsBruteForce();
+
+		/* ...some to the same location... */
+		for (int i=0; i < 10; i++) {
+			move(i, new Coord(530, 530));
+		}
+		assertSameAsBruteForce();
+
+		/* ...and spread them out again (merges the nodes) */
+		for (int i=0; i < NROF_HOSTS; i++) {
+			move(i, randomCoord(0, WORLD_SIZE));
+			if (i % 50 == 0) {
+				assertSameAsBruteForce();
+			}
+		}
+		assertSameAsBruteForce();
+	}
+
+	public void testMovingHosts() {
+		for (int i=0; i < NROF_HOSTS; i++) {
+			move(i, randomCoord(400, 600));
+		}
+		for (int round=0; round < 20; round++) {
+			for (int i=0; i < NROF_HOSTS; i++) {
+				Coord c = hosts.get(i).getLocation();
+				double x = c.getX() + (rng.nextDouble() - 0.5) * 4 * RANGE;
+				double y = c.getY() + (rng.nextDouble() - 0.5) * 4 * RANGE;
+				move(i, new Coord(Math.min(Math.max(x, 0), WORLD_SIZE),
+						Math.min(Math.max(y, 0), WORLD_SIZE)));
+			}
+			assertSameAsBruteForce();
+		}
+	}
+
+	public void testRemoveInterfaces() {
+		for (int i=0; i < NROF_HOSTS; i++) {
+			move(i, randomCoord(450, 550));
+		}
+		for (int i=0; i < NROF_HOSTS; i += 2) {
+			tree.removeInterface(interfaces.get(i));
+		}
+		assertEquals(NROF_HOSTS / 2, tree.getAllInterfaces().size());
+		assertSameAsBruteForce();
+
+		/* removed interfaces have no near interfaces */
+		assertEquals(0, tree.getNearInterfaces(interfaces.get(0)).size());
+	}
+}
@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import routing.util.DropPolicyIndex;
+import core.Message;
+import core.SimClock;
+
+/**
+ * Tests the drop orders of DropPolicyIndex
+ */
+public class DropPolicyIndexTest extends TestCase {
+	private Message m1, m2, m3;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.getInstance().setTime(0);
+		/* m1: oldest, medium size, longest TTL */
+		m1 = new Message(null, null, "M1", 200);
+		m1.setTtl(30);
+		SimClock.getInstance().setTime(10);
+		/* m2: largest, shortest TTL */
+		m2 = new Message(null, null, "M2", 300);
+		m2.setTtl(10);
+		SimClock.getInstance().setTime(20);
+		/* m3: newest, smallest */
+		m3 = new Message(null, null, "M3", 100);
+		m3.setTtl(20);
+	}
+	
+	public void testFifo() {
+		DropPolicyIndex index = createIndex(DropPolicyIndex.FIFO);
+		assertOrder(index, m1, m2, m3);
+		
+		index.remove(m1.getId());
+		assertOrder(index, m2, m3);
+	}
+	
+	public void testTtl() {
+		assertOrder(createIndex(DropPolicyIndex.TTL), m2, m3, m1);
+	}
+	
+	public void testLargest() {
+		assertOrder(createIndex(DropPolicyIndex.LARGEST), m2, m1, m3);
+	}
+	
+	public void testMofo() {
+		DropPolicyIndex index = createIndex(DropPolicyIndex.MOFO);
+		assertOrder(index, m2, m3, m1); /* none forwarded: in adding order */
+		
+		index.forwarded(m3.getId());
+		index.forwarded(m2.getId());
+		index.forwarded(m3.getId());
+		assertOrder(index, m3, m2, m1);
+	}
+	
+	public void testPolicyNames() {
+		assertTrue(DropPolicyIndex.isValidPolicy("fifo"));
+		assertTrue(DropPolicyIndex.isValidPolicy("MOFO"));
+		assertFalse(DropPolicyIndex.isValidPolicy("router"));
+	}
+	
+	private DropPolicyIndex createIndex(String policy) {
+		DropPolicyIndex index = new DropPolicyIndex(policy);
+		index.add(m2);
+		index.add(m3);
+		index.add(m1);
+		return index;
+	}
+	
+	private void assertOrder(DropPolicyIndex index, Message... expected) {
+		List<Message> order = new ArrayList<Message>();
+		for (Message m : index) {
+			order.add(m);
+		}
+		assertEquals(expected.length, order.size());
+		for (int i=0; i < expected.length; i++) {
+			assertEquals(expected[i], order.get(i));
+		}
+	}
+}
@@ -5,6 +5,7 @@
 package test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +26,7 @@ public class MaxPropDijkstraTest extends TestCase {
 	/* amount of deviation from expected values that is OK */ 
 	private final double DELTA = 0.0000001;
 	private Set<DTNHost> hostsSet;
+	private List<DTNHost> hosts;
 	private List<MeetingProbabilitySet> msets;
 	private Map<Integer, MeetingProbabilitySet> mapping;
 	
@@ -39,6 +41,7 @@ public class MaxPropDijkstraTest extends TestCase {
 		msets = new ArrayList<MeetingProbabilitySet>();
 		mapping = new HashMap<Integer, MeetingProbabilitySet>();
 		hostsSet = new HashSet<DTNHost>();
+		hosts = new ArrayList<DTNHost>();
 		
 		for (int i=0; i<NROF_HOSTS; i++) {
 			DTNHost host = tu.createHost();
@@ -46,6 +49,7 @@ public class MaxPropDijkstraTest extends TestCase {
 					MeetingProbabilitySet.INFINITE_SET_SIZE, 1.0);
 			msets.add(set);
 			hostsSet.add(host);
+			hosts.add(host);
 			mapping.put(host.getAddress(), set);
 		}
 				
@@ -74,6 +78,20 @@ public class MaxPropDijkstraTest extends TestCase {
 		assertEquals(0.125, mps.getProbFor(2));	
 	}
 
+	public void testSnapshots() {
+		MeetingProbabilitySet mps = mapping.get(0);
+		mps.updateMeetingProbFor(1);
+		
+		MeetingProbabilitySet snapshot = mps.replicate();
+		assertNotSame(mps, snapshot);
+		assertSame(snapshot, snapshot.replicate()); // snapshots are shared
+		
+		mps.updateMeetingProbFor(2); // updates must not affect the snapshot
+		assertEquals(0.5, mps.getProbFor(1));
+		assertEquals(1.0, snapshot.getProbFor(1));
+		assertEquals(0.0, snapshot.getProbFor(2));
+	}
+	
 	public void testPath() {
 		targets.add(1);
 		targets.add(2);
@@ -124,6 +142,44 @@ public class MaxPropDijkstraTest extends TestCase {
 	}
 	
 	
+	public void testCostCaching() {
+		DTNHost h0 = hosts.get(0);
+		DTNHost h1 = hosts.get(1);
+		DTNHost h2 = hosts.get(2);
+		DTNHost h3 = hosts.get(3);
+		List<DTNHost> targets1 = Arrays.asList(h2);
+		List<DTNHost> targets2 = Arrays.asList(h2, h3);
+		
+		mapping.get(0).updateMeetingProbFor(1); // h0 meets h1
+		mapping.get(1).updateMeetingProbFor(2); // h1 meets h2 and h3
+		mapping.get(1).updateMeetingProbFor(3);
+		assertEquals(0.5, mpd.getCost(h0, h2, targets1, 1), DELTA);
+		
+		/* same source again: cached costs are used, so the destinations
+		   that were not targets have no path */
+		assertEquals(Double.MAX_VALUE, mpd.getCost(h0, h3, targets2, 2));
+		
+		/* the cached costs are used until invalidated */
+		mapping.get(1).updateMeetingProbFor(2); // P(2) = 0.75, P(3) = 0.25
+		assertEquals(0.5, mpd.getCost(h0, h2, targets2, 2), DELTA);
+		
+		/* new source -> costs are calculated */
+		assertEquals(0.75, mpd.getCost(h1, h3, targets2, 2), DELTA);
+		
+		/* source changed and h0's costs were calculated with other targets
+		   -> costs are calculated again */
+		assertEquals(0.75, mpd.getCost(h0, h3, targets2, 2), DELTA);
+		assertEquals(0.25, mpd.getCost(h0, h2, targets2, 2), DELTA);
+		
+		/* source changed but h1's costs have the same targets -> reused */
+		mapping.get(1).updateMeetingProbFor(3); // P(2)=0.375, P(3)=0.625
+		assertEquals(0.75, mpd.getCost(h1, h3, targets2, 2), DELTA);
+		
+		mpd.invalidateCosts();
+		assertEquals(0.375, mpd.getCost(h1, h3, targets2, 2), DELTA);
+		assertEquals(0.625, mpd.getCost(h1, h2, targets2, 2), DELTA);
+	}
+	
 	public void testProbabilitySumsToOne() {
 		double total;
 		
@@ -11,7 +11,9 @@ import org.junit.Test;
 
 import core.DTNHost;
 import core.Message;
+import core.NetworkInterface;
 import core.SimClock;
+import core.SimError;
 
 public class MessageTest extends TestCase {
 
@@ -60,5 +62,105 @@ public class MessageTest extends TestCase {
 		assertEquals(value2, msg.getProperty("bar"));
 	}
 
+	@Test
+	public void testReplicate() {
+		msg.addProperty("foo", "value1");
+		Message copy = msg.replicate();
+		copy.addNodeOnPath(to);
+		copy.updateProperty("foo", "value2");
+		copy.addProperty("bar", "value3");
+		
+		assertEquals(msg.getId(), copy.getId());
+		assertEquals(msg.getIntId(), copy.getIntId());
+		assertEquals(0, msg.getHopCount());
+		assertEquals(1, copy.getHopCount());
+		assertEquals(2, copy.getHops().size());
+		assertEquals("value1", msg.getProperty("foo"));
+		assertNull(msg.getProperty("bar"));
+		assertEquals("value2", copy.getProperty("foo"));
+		
+		msg.updateProperty("foo", "value4");
+		assertEquals("value2", copy.getProperty("foo"));
+		assertEquals("value4", msg.getProperty("foo"));
+		
+		copy.setTtl(5);
+		assertEquals(5, copy.getInitialTtl());
+		assertEquals(10, msg.getInitialTtl());
+		assertEquals(msg.getCreationTime(), copy.getCreationTime());
+	}
+
+	@Test
+	public void testIntProperty() {
+		int slot1 = Message.registerIntProperty("MessageTest.foo");
+		int slot2 = Message.registerIntProperty("MessageTest.bar");
+		assertEquals(slot1, Message.registerIntProperty("MessageTest.foo"));
+		assertTrue(slot1 != slot2);
+		
+		assertEquals(0, msg.getIntProperty(slot2));
+		assertFalse(msg.hasIntProperty(slot2));
+		msg.setIntProperty(slot2, 5);
+		Message copy = msg.replicate();
+		copy.setIntProperty(slot2, 2);
+		copy.setIntProperty(slot1, 3);
+		
+		assertEquals(5, msg.getIntProperty(slot2));
+		assertEquals(0, msg.getIntProperty(slot1));
+		assertEquals(2, copy.getIntProperty(slot2));
+		assertEquals(3, copy.getIntProperty(slot1));
+		assertTrue(msg.hasIntProperty(slot2));
+		assertFalse(msg.hasIntProperty(slot1));
+		assertTrue(copy.hasIntProperty(slot1));
+	}
+	
+	@Test
+	public void testAddIntProperty() {
+		int slot = Message.registerIntProperty("MessageTest.baz");
+		msg.addIntProperty(slot, 4);
+		assertEquals(4, msg.getIntProperty(slot));
+		
+		Message copy = msg.replicate();
+		try {
+			copy.addIntProperty(slot, 5);
+			fail("Adding a value twice should fail");
+		} catch (SimError e) {
+			// expected
+		}
+		assertEquals(4, copy.getIntProperty(slot));
+		
+		copy.setIntProperty(slot, 5); // replaces the old value
+		assertEquals(5, copy.getIntProperty(slot));
+		assertEquals(4, msg.getIntProperty(slot));
+	}
+	
+	@Test
+	public void testIsOnPath() {
+		TestSettings ts = new TestSettings();
+		ts.setNameSpace(TestUtils.IFACE_NS);
+		ts.putSetting(NetworkInterface.TRANSMIT_SPEED_S, "1");
+		TestUtils utils = new TestUtils(null, null, ts);
+		DTNHost.reset();
+		
+		/* more hosts than there are bits in the path filter */
+		DTNHost[] hosts = new DTNHost[70];
+		for (int i=0; i < hosts.length; i++) {
+			hosts[i] = utils.createHost();
+		}
+		
+		Message m = new Message(hosts[0], hosts[1], "M2", 100);
+		m.addNodeOnPath(hosts[2]);
+		Message copy = m.replicate();
+		copy.addNodeOnPath(hosts[66]);
+		
+		assertTrue(m.isOnPath(hosts[0]));
+		assertTrue(m.isOnPath(hosts[2]));
+		assertFalse(m.isOnPath(hosts[1]));
+		assertFalse(m.isOnPath(hosts[66]));
+		assertTrue(copy.isOnPath(hosts[66]));
+		assertTrue(copy.isOnPath(hosts[2]));
+		assertFalse(copy.isOnPath(hosts[64])); // same filter bit as hosts[0]
+		assertFalse(copy.isOnPath(hosts[3]));
+		assertEquals(hosts[66], copy.getHops().get(2));
+	}
+
 
 }
@@ -0,0 +1,127 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import routing.util.PredictabilityTable;
+import core.DTNHost;
+import core.NetworkInterface;
+import core.World;
+
+/**
+ * Tests for the (dense and sparse) predictability tables
+ */
+public class PredictabilityTableTest extends TestCase {
+	private static final int DENSE_HOSTS = 10;
+	private DTNHost[] hosts;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		TestSettings ts = new TestSettings();
+		ts.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." +
+				PredictabilityTable.DENSE_TABLE_HOSTS_S, "" + DENSE_HOSTS);
+		ts.setNameSpace(TestUtils.IFACE_NS);
+		ts.putSetting(NetworkInterface.TRANSMIT_SPEED_S, "1");
+		TestUtils utils = new TestUtils(null, null, ts);
+		DTNHost.reset();
+		PredictabilityTable.reset();
+
+		this.hosts = new DTNHost[100];
+		for (int i=0; i < hosts.length; i++) {
+			hosts[i] = utils.createHost();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		new TestSettings();
+		PredictabilityTable.reset();
+	}
+
+	public void testPutGet() {
+		PredictabilityTable t = new PredictabilityTable();
+		t.put(hosts[3], 0.5);
+		t.put(hosts[7], 0.25);
+		t.put(hosts[3], 0.75);
+
+		assertEquals(2, t.size());
+		assertEquals(0.75, t.get(hosts[3]));
+		assertEquals(0.25, t.get(hosts[7]));
+		assertEquals(0.0, t.get(hosts[5]));
+		assertEquals(0.0, t.get(hosts[50]));
+		assertTrue(t.contains(hosts[7]));
+		assertFalse(t.contains(hosts[5]));
+		assertFalse(t.contains(hosts[50]));
+	}
+
+	public void testDenseToSparse() {
+		PredictabilityTable t = new PredictabilityTable();
+		for (int i=0; i < hosts.length; i += 3) {
+			t.put(hosts[i], i);
+		}
+		/* hosts added after the table switched to sparse */
+		t.put(hosts[1], 1);
+		t.put(hosts[98], 98);
+
+		Set<DTNHost> expected = new HashSet<DTNHost>();
+		for (int i=0; i < hosts.length; i++) {
+			if (i % 3 == 0 || i == 1 || i == 98) {
+				expected.add(hosts[i]);
+				assertEquals((double)i, t.get(hosts[i]));
+			} else {
+				assertFalse(t.contains(hosts[i]));
+			}
+		}
+		assertEquals(expected.size(), t.size());
+		assertEquals(expected, new HashSet<DTNHost>(t.getHosts()));
+	}
+
+	public void testAge() {
+		PredictabilityTable t = new PredictabilityTable();
+		t.put(hosts[0], 0.5);
+		t.put(hosts[60], 1.0);
+		t.age(0.5);
+		t.put(hosts[1], 0.5);
+
+		assertEquals(0.25, t.get(hosts[0]));
+		assertEquals(0.5, t.get(hosts[60]));
+		assertEquals(0.5, t.get(hosts[1]));
+
+		/* enough aging to make the table rescale its values */
+		for (int i=0; i < 400; i++) {
+			t.age(0.5);
+		}
+		t.put(hosts[2], 0.5);
+		assertTrue(t.get(hosts[0]) < 1e-100);
+		assertEquals(0.5, t.get(hosts[2]));
+	}
+	
+	public void testIsGreater() {
+		/* the same value aged in different steps */
+		PredictabilityTable t1 = new PredictabilityTable();
+		PredictabilityTable t2 = new PredictabilityTable();
+		t1.put(hosts[0], 0.3);
+		t2.put(hosts[0], 0.3);
+		for (int i=0; i < 1000; i++) {
+			t1.age(Math.pow(0.98, 0.1));
+		}
+		for (int i=0; i < 10; i++) {
+			t2.age(Math.pow(0.98, 10));
+		}
+		double v1 = t1.get(hosts[0]);
+		double v2 = t2.get(hosts[0]);
+		assertEquals(v1, v2, 1e-12);
+		assertFalse(PredictabilityTable.isGreater(v1, v2));
+		assertFalse(PredictabilityTable.isGreater(v2, v1));
+		
+		assertTrue(PredictabilityTable.isGreater(0.31, 0.3));
+		assertFalse(PredictabilityTable.isGreater(0.3, 0.31));
+		assertTrue(PredictabilityTable.isGreater(1e-20, 0));
+		assertFalse(PredictabilityTable.isGreater(0, 0));
+	}
+}
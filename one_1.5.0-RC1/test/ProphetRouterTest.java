@@ -4,8 +4,13 @@
  */
 package test;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
 import routing.MessageRouter;
 import routing.ProphetRouter;
+import routing.util.PredictabilityTable;
+import core.Connection;
 import core.Message;
 
 /**
@@ -151,4 +156,106 @@ public class ProphetRouterTest extends AbstractRouterTest {
 		assertEquals(newPred, r5.getPredFor(h4));
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Tests that the ranking of the other messages is computed again when
+	 * any of the data it depends on changes and reused when the
+	 * predictabilities are only aged
+	 */
+	public void testRankingCache() throws Exception {
+		ProphetRouter r0 = (ProphetRouter)h0.getRouter();
+		h0.createNewMessage(new Message(h0, h6, msgId1, 1));
+		h0.forceConnection(h1, null, true);
+		h0.forceConnection(h2, null, true);
+		Object ranking = checkRebuilt(r0, null);
+
+		/* aging doesn't change the versions */
+		clock.advance(SECONDS_IN_TIME_UNIT * 10);
+		assertTrue(isRankingValid(r0));
+		assertSame(ranking, rank(r0));
+
+		/* own buffer */
+		h0.createNewMessage(new Message(h0, h6, msgId2, 1));
+		ranking = checkRebuilt(r0, ranking);
+
+		/* own predictabilities */
+		getPreds(r0).put(h5, 0.5);
+		ranking = checkRebuilt(r0, ranking);
+
+		/* a peer's buffer: a new and a received message */
+		h1.createNewMessage(new Message(h1, h5, msgId3, 1));
+		ranking = checkRebuilt(r0, ranking);
+		Message m = new Message(h3, h4, msgId4, 1);
+		h3.createNewMessage(m);
+		assertEquals(MessageRouter.RCV_OK, h2.receiveMessage(m, h3));
+		assertTrue(isRankingValid(r0));
+		h2.messageTransferred(msgId4, h3);
+		ranking = checkRebuilt(r0, ranking);
+
+		/* a peer's predictabilities (the peer meets another host) */
+		h2.forceConnection(h4, null, true);
+		ranking = checkRebuilt(r0, ranking);
+
+		/* a peer starts transferring */
+		Connection con = h2.getConnections().get(1);
+		assertSame(h4, con.getOtherNode(h2));
+		assertTrue(h2.requestDeliverableMessages(con));
+		assertTrue(((ProphetRouter)h2.getRouter()).isTransferring());
+		ranking = checkRebuilt(r0, ranking);
+
+		/* a new connection to the same host (with the same versions) */
+		h0.forceConnection(h1, null, false);
+		h0.forceConnection(h1, null, true);
+		invoke(r0, "saveRankingVersions");
+		ranking = checkRebuilt(r0, ranking);
+		h0.forceConnection(h3, null, true);
+		ranking = checkRebuilt(r0, ranking);
+
+		clock.advance(SECONDS_IN_TIME_UNIT * 100);
+		assertTrue(isRankingValid(r0));
+		assertSame(ranking, rank(r0));
+	}
+
+	/**
+	 * Checks that the router's ranking is not valid anymore and that it is
+	 * computed again and then reused
+	 * @return The new ranking
+	 */
+	private Object checkRebuilt(ProphetRouter r, Object oldRanking)
+			throws Exception {
+		assertFalse(isRankingValid(r));
+		Object ranking = rank(r);
+		assertNotNull(ranking);
+		assertNotSame(oldRanking, ranking);
+		assertTrue(isRankingValid(r));
+		assertSame(ranking, rank(r));
+		return ranking;
+	}
+
+	/**
+	 * Tries to send the other messages (none of the tests' messages
+	 * can be sent) and returns the router's (private) ranking of them
+	 */
+	private Object rank(ProphetRouter r) throws Exception {
+		assertNull(invoke(r, "tryOtherMessages"));
+		Field f = ProphetRouter.class.getDeclaredField("ranking");
+		f.setAccessible(true);
+		return f.get(r);
+	}
+
+	private boolean isRankingValid(ProphetRouter r) throws Exception {
+		return (Boolean)invoke(r, "isRankingValid");
+	}
+
+	private PredictabilityTable getPreds(ProphetRouter r) throws Exception {
+		Field f = ProphetRouter.class.getDeclaredField("preds");
+		f.setAccessible(true);
+		return (PredictabilityTable)f.get(r);
+	}
+
+	private Object invoke(ProphetRouter r, String method) throws Exception {
+		Method m = ProphetRouter.class.getDeclaredMethod(method);
+		m.setAccessible(true);
+		return m.invoke(r);
+	}
+
+}
@@ -0,0 +1,62 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import util.Shuffler;
+
+/**
+ * Tests that Shuffler gives the same orders as Collections.shuffle
+ */
+public class ShufflerTest extends TestCase {
+	private Shuffler shuffler;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.shuffler = new Shuffler();
+	}
+	
+	public void testSameAsCollectionsShuffle() {
+		int[] sizes = {0, 1, 2, 5, 10, 100, 3, 100};
+		long[] seeds = {0, 1, 1, 7, 7, 42, 42, 42};
+		
+		for (int i=0; i < sizes.length; i++) {
+			List<Integer> expected = createList(sizes[i]);
+			List<Integer> list = createList(sizes[i]);
+			
+			Collections.shuffle(expected, new Random(seeds[i]));
+			shuffler.shuffle(list, seeds[i]);
+			assertEquals(expected, list);
+		}
+	}
+	
+	public void testRepeatedShuffles() {
+		List<Integer> expected = createList(50);
+		List<Integer> list = createList(50);
+		
+		/* the same seed many times and then a new one */
+		for (int i=0; i < 5; i++) {
+			Collections.shuffle(expected, new Random(3));
+			shuffler.shuffle(list, 3);
+			assertEquals(expected, list);
+		}
+		Collections.shuffle(expected, new Random(4));
+		shuffler.shuffle(list, 4);
+		assertEquals(expected, list);
+	}
+	
+	private List<Integer> createList(int size) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i=0; i < size; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+}
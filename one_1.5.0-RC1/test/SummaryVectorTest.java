@@ -0,0 +1,86 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import junit.framework.TestCase;
+import routing.util.SummaryVector;
+
+/**
+ * Tests for the message summary vectors
+ */
+public class SummaryVectorTest extends TestCase {
+	private SummaryVector v1;
+	private SummaryVector v2;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.v1 = new SummaryVector();
+		this.v2 = new SummaryVector();
+	}
+	
+	public void testAddRemove() {
+		v1.add(3);
+		v1.add(200);
+		v1.add(3);
+		assertEquals(2, v1.size());
+		assertTrue(v1.contains(3));
+		assertTrue(v1.contains(200));
+		assertFalse(v1.contains(67));
+		assertFalse(v1.contains(1000));
+		
+		v1.remove(3);
+		v1.remove(4);
+		v1.remove(1000);
+		assertEquals(1, v1.size());
+		assertFalse(v1.contains(3));
+	}
+	
+	public void testDifference() {
+		assertTrue(v1.isSubsetOf(v2));
+		
+		v1.add(1);
+		v1.add(64);
+		v1.add(130);
+		v2.add(1);
+		v2.add(64);
+		assertFalse(v1.isSubsetOf(v2));
+		assertTrue(v2.isSubsetOf(v1));
+		
+		v2.add(130);
+		v2.add(500);
+		assertTrue(v1.isSubsetOf(v2));
+		assertFalse(v2.isSubsetOf(v1));
+	}
+	
+	public void testIdRange() {
+		v1.add(300);
+		v1.add(700);
+		v2.add(700);
+		assertFalse(v1.isSubsetOf(v2)); // 300 below v2's lowest ID
+		v2.add(300);
+		v2.add(1000);
+		assertTrue(v1.isSubsetOf(v2));
+		
+		/* removing the lowest and highest IDs shrinks the range */
+		v2.remove(300);
+		assertFalse(v1.isSubsetOf(v2));
+		v1.remove(300);
+		v2.remove(1000);
+		assertTrue(v1.isSubsetOf(v2));
+		assertTrue(v2.isSubsetOf(v1));
+		
+		v1.remove(700);
+		assertEquals(0, v1.size());
+		assertTrue(v1.isSubsetOf(v2));
+		assertFalse(v2.isSubsetOf(v1));
+		
+		/* an emptied vector works like a new one */
+		v1.add(5);
+		v2.add(5);
+		assertTrue(v1.isSubsetOf(v2));
+		v2.remove(700);
+		assertTrue(v2.isSubsetOf(v1));
+	}
+}
@@ -0,0 +1,356 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package test;
+
+import input.EventQueueHandler;
+import input.MessageEventGenerator;
+import interfaces.ConnectivityGrid;
+import interfaces.ConnectivityOptimizer;
+import interfaces.ConnectivityQuadTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import movement.LinearMovement;
+import movement.MovementModel;
+import core.Connection;
+import core.ConnectionListener;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.NetworkInterface;
+import core.SettingsError;
+import core.SimClock;
+import core.SimScenario;
+import core.UpdateListener;
+import core.World;
+
+/**
+ * Tests for the optional update modes of the World. Runs a small random 
+ * waypoint scenario with epidemic routing in different modes and compares
+ * the connection and message events the listeners get.
+ */
+public class WorldModesTest extends TestCase {
+	private static final double END_TIME = 300;
+	private static final double RANGE = 30;
+	/** for rounding errors in the kinetic range checks */
+	private static final double RANGE_DELTA = 0.01;
+	/** for rounding errors and the margin in the kinetic contact times */
+	private static final double TIME_DELTA = 0.0001;
+
+	private TestSettings ts;
+	private EventRecorder recorder;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ts = new TestSettings();
+		String sns = SimScenario.SCENARIO_NS + ".";
+		ts.putSetting(sns + SimScenario.END_TIME_S, "" + END_TIME);
+		ts.putSetting(sns + SimScenario.UP_INT_S, "1.0");
+		ts.putSetting(MovementModel.MOVEMENT_MODEL_NS + "." +
+				MovementModel.WORLD_SIZE, "500,500");
+		ts.putSetting(MovementModel.MOVEMENT_MODEL_NS + "." +
+				MovementModel.RNG_SEED, "1");
+
+		ts.putSetting("btInterface.type", "SimpleBroadcastInterface");
+		ts.putSetting("btInterface." + NetworkInterface.TRANSMIT_SPEED_S,
+				"250k");
+		ts.putSetting("btInterface." + NetworkInterface.TRANSMIT_RANGE_S,
+				"" + RANGE);
+
+		String gns = SimScenario.GROUP_NS + ".";
+		ts.putSetting(gns + SimScenario.GROUP_ID_S, "p");
+		ts.putSetting(gns + SimScenario.NROF_HOSTS_S, "60");
+		ts.putSetting(gns + SimScenario.NROF_INTERF_S, "1");
+		ts.putSetting(gns + SimScenario.INTERFACENAME_S + "1", "btInterface");
+		ts.putSetting(gns + SimScenario.MOVEMENT_MODEL_S, "RandomWaypoint");
+		ts.putSetting(gns + SimScenario.ROUTER_S, "EpidemicRouter");
+		ts.putSetting(gns + "speed", "1, 5");
+		ts.putSetting(gns + "waitTime", "0, 10");
+		ts.putSetting(gns + "bufferSize", "2M");
+		ts.putSetting(gns + "msgTtl", "60");
+
+		String ens = EventQueueHandler.SETTINGS_NAMESPACE;
+		ts.putSetting(ens + "." + EventQueueHandler.NROF_SETTING, "1");
+		ts.putSetting(ens + "1." + EventQueueHandler.CLASS_SETTING,
+				"MessageEventGenerator");
+		ts.putSetting(ens + "1." + MessageEventGenerator.MESSAGE_INTERVAL_S,
+				"2, 5");
+		ts.putSetting(ens + "1." + MessageEventGenerator.MESSAGE_SIZE_S,
+				"50k, 200k");
+		ts.putSetting(ens + "1." + MessageEventGenerator.HOST_RANGE_S,
+				"0, 60");
+		ts.putSetting(ens + "1." + MessageEventGenerator.MESSAGE_ID_PREFIX_S,
+				"M");
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		new TestSettings();
+		resetAll();
+	}
+
+	/**
+	 * Resets the static state of the classes that the scenario uses
+	 */
+	private void resetAll() {
+		SimClock.reset();
+		DTNHost.reset();
+		Message.reset();
+		NetworkInterface.reset();
+		ConnectivityGrid.reset();
+		ConnectivityQuadTree.reset();
+		MovementModel.reset();
+		SimScenario.reset();
+	}
+
+	/**
+	 * Runs the scenario with the given optimization settings
+	 * @param settings Optimization setting names and values
+	 * @return The events the listeners got during the run
+	 */
+	private List<String> runScenario(String... settings) {
+		for (int i=0; i < settings.length; i += 2) {
+			ts.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." + settings[i],
+					settings[i+1]);
+		}
+		resetAll();
+
+		SimScenario scen = SimScenario.getInstance();
+		this.recorder = new EventRecorder();
+		scen.addConnectionListener(recorder);
+		scen.addMessageListener(recorder);
+		scen.addUpdateListener(recorder);
+
+		World world = scen.getWorld();
+		while (SimClock.getTime() < END_TIME) {
+			world.update();
+		}
+		assertTrue(recorder.events.size() > 0);
+		return recorder.events;
+	}
+
+	/**
+	 * Returns the events of the given type
+	 */
+	private List<String> getEvents(List<String> events, String type) {
+		List<String> ofType = new ArrayList<String>();
+		for (String event : events) {
+			if (event.split(" ")[1].equals(type)) {
+				ofType.add(event);
+			}
+		}
+		return ofType;
+	}
+
+	public void testEventDrivenUpdates() {
+		List<String> created = getEvents(runScenario(), "C");
+		/* hosts are updated at different times but the messages are still 
+		   created at the same times and the runs are repeatable */
+		List<String> events = runScenario(World.EVENT_DRIVEN_UPDATES_S, "true");
+		assertEquals(created, getEvents(events, "C"));
+		assertEquals(events, runScenario());
+		
+		events = runScenario(World.RANDOMIZE_UPDATES_S, "false");
+		assertEquals(created, getEvents(events, "C"));
+		assertEquals(events, runScenario());
+	}
+
+	public void testParallelMovement() {
+		ts.putSetting(MovementModel.MOVEMENT_MODEL_NS + "." +
+				MovementModel.RNG_PER_HOST_S, "true");
+		List<String> expected = runScenario();
+		assertEquals(expected, runScenario(World.MOVEMENT_THREADS_S, "4"));
+	}
+
+	public void testParallelMovementWithSharedRng() {
+		ts.putSetting(MovementModel.MOVEMENT_MODEL_NS + "." +
+				MovementModel.RNG_PER_HOST_S, "false");
+		try {
+			runScenario(World.MOVEMENT_THREADS_S, "4");
+			fail("Parallel movement with a shared rng should be refused");
+		} catch (SettingsError e) {
+			// expected
+		}
+	}
+
+	public void testParallelConnectivity() {
+		List<String> expected = runScenario();
+		assertEquals(expected, runScenario(World.CONNECTIVITY_THREADS_S, "2"));
+		assertEquals(expected, runScenario(World.CONNECTIVITY_THREADS_S, "4"));
+	}
+
+	public void testParallelConnectivityWithoutRandomizing() {
+		List<String> expected = runScenario(World.RANDOMIZE_UPDATES_S, "false");
+		assertEquals(expected, runScenario(World.CONNECTIVITY_THREADS_S, "2"));
+	}
+
+	public void testPairDetection() {
+		List<String> expected = runScenario();
+		assertEquals(expected, runScenario(World.PAIR_DETECTION_S, "true"));
+	}
+
+	public void testParallelRouters() {
+		List<String> expected = runScenario();
+		assertEquals(expected, runScenario(World.ROUTER_THREADS_S, "4"));
+	}
+
+	public void testKineticContacts() {
+		runScenario(World.KINETIC_CONTACTS_S, "true");
+		assertTrue(recorder.nrofConnections > 0);
+	}
+
+	public void testKineticContactTimes() {
+		/* two hosts 300m apart drive towards each other at 2 m/s, so they 
+		   are within range (30m) from 67.5s to 82.5s */
+		ts.putSetting(SimScenario.SCENARIO_NS + "." + SimScenario.UP_INT_S,
+				"10");
+		ts.putSetting(SimScenario.SCENARIO_NS + "." + 
+				SimScenario.NROF_GROUPS_S, "2");
+		ts.putSetting(EventQueueHandler.SETTINGS_NAMESPACE + "." +
+				EventQueueHandler.NROF_SETTING, "0");
+		String gns = SimScenario.GROUP_NS + ".";
+		String lns = gns + LinearMovement.LINEAR_MOVEMENT_NS;
+		ts.putSetting(gns + SimScenario.NROF_HOSTS_S, "1");
+		ts.putSetting(gns + SimScenario.MOVEMENT_MODEL_S, "LinearMovement");
+		ts.putSetting(gns + "speed", "2, 2");
+		ts.putSetting(lns + LinearMovement.INIT_LOC_S, "1");
+		ts.putSetting(lns + LinearMovement.TARGET_S, "1");
+		ts.putSetting("Group1." + LinearMovement.LINEAR_MOVEMENT_NS + 
+				LinearMovement.START_LOCATION_S, "100, 250");
+		ts.putSetting("Group1." + LinearMovement.LINEAR_MOVEMENT_NS + 
+				LinearMovement.END_LOCATION_S, "400, 250");
+		ts.putSetting("Group2." + LinearMovement.LINEAR_MOVEMENT_NS + 
+				LinearMovement.START_LOCATION_S, "400, 250");
+		ts.putSetting("Group2." + LinearMovement.LINEAR_MOVEMENT_NS + 
+				LinearMovement.END_LOCATION_S, "100, 250");
+
+		/* without prediction, the contact follows the update interval */
+		runScenario();
+		assertEquals(2, recorder.contactTimes.size());
+		assertEquals(70.0, recorder.contactTimes.get(0), TIME_DELTA);
+		assertEquals(90.0, recorder.contactTimes.get(1), TIME_DELTA);
+
+		runScenario(World.KINETIC_CONTACTS_S, "true");
+		assertEquals(2, recorder.contactTimes.size());
+		assertEquals(67.5, recorder.contactTimes.get(0), TIME_DELTA);
+		assertEquals(82.5, recorder.contactTimes.get(1), TIME_DELTA);
+	}
+
+	public void testKineticContactsWithQuadTree() {
+		/* hosts move up to 50m (more than the range) during an interval */
+		ts.putSetting(SimScenario.SCENARIO_NS + "." + SimScenario.UP_INT_S,
+				"10");
+		runScenario(World.KINETIC_CONTACTS_S, "true");
+		List<String> expected = recorder.getSortedContacts();
+		runScenario(ConnectivityOptimizer.OPTIMIZER_S,
+				ConnectivityOptimizer.QUADTREE_OPTIMIZER);
+		/* the optimizers visit the interfaces in different orders, so only 
+		   the contacts (not their order or the routing) must be the same */
+		assertEquals(expected, recorder.getSortedContacts());
+	}
+
+	public void testKineticContactsWithTooSmallCells() {
+		ts.putSetting(SimScenario.SCENARIO_NS + "." + SimScenario.UP_INT_S,
+				"20");
+		try {
+			runScenario(World.KINETIC_CONTACTS_S, "true");
+			fail("Cells smaller than the movement margin should be refused");
+		} catch (SettingsError e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Records the connection and message events and checks the connections
+	 * of the hosts after every update
+	 */
+	private class EventRecorder implements ConnectionListener,
+			MessageListener, UpdateListener {
+		private List<String> events = new ArrayList<String>();
+		private List<String> contacts = new ArrayList<String>();
+		private List<Double> contactTimes = new ArrayList<Double>();
+		private int nrofConnections = 0;
+
+		private void add(String type, Object... params) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(SimClock.getTime()).append(' ').append(type);
+			for (Object p : params) {
+				sb.append(' ').append(p);
+			}
+			events.add(sb.toString());
+		}
+
+		private void addContact(DTNHost host1, DTNHost host2, String type) {
+			int a1 = Math.min(host1.getAddress(), host2.getAddress());
+			int a2 = Math.max(host1.getAddress(), host2.getAddress());
+			contacts.add(SimClock.getTime() + " " + a1 + " " + a2 + " " + type);
+			contactTimes.add(SimClock.getTime());
+		}
+
+		/**
+		 * Returns the connection events (with the hosts in the order of
+		 * their addresses) sorted
+		 */
+		private List<String> getSortedContacts() {
+			List<String> sorted = new ArrayList<String>(contacts);
+			Collections.sort(sorted);
+			return sorted;
+		}
+
+		public void hostsConnected(DTNHost host1, DTNHost host2) {
+			/* kinetic contacts are updated right after the range is crossed */
+			assertTrue(host1.getLocation().distance(host2.getLocation()) <=
+				RANGE + RANGE_DELTA);
+			nrofConnections++;
+			add("CONN", host1, host2, "up");
+			addContact(host1, host2, "up");
+		}
+
+		public void hostsDisconnected(DTNHost host1, DTNHost host2) {
+			assertTrue(host1.getLocation().distance(host2.getLocation()) >
+				RANGE - RANGE_DELTA);
+			add("CONN", host1, host2, "down");
+			addContact(host1, host2, "down");
+		}
+
+		public void newMessage(Message m) {
+			add("C", m.getFrom(), m);
+		}
+
+		public void messageTransferStarted(Message m, DTNHost from,
+				DTNHost to) {
+			add("S", from, to, m);
+		}
+
+		public void messageDeleted(Message m, DTNHost where, boolean dropped) {
+			add(dropped ? "DR" : "R", where, m);
+		}
+
+		public void messageTransferAborted(Message m, DTNHost from,
+				DTNHost to) {
+			add("A", from, to, m);
+		}
+
+		public void messageTransferred(Message m, DTNHost from, DTNHost to,
+				boolean firstDelivery) {
+			add(firstDelivery ? "DE" : "D", from, to, m);
+		}
+
+		public void updated(List<DTNHost> hosts) {
+			for (DTNHost host : hosts) {
+				List<Connection> expected = new ArrayList<Connection>();
+				for (NetworkInterface ni : host.getInterfaces()) {
+					expected.addAll(ni.getConnections());
+				}
+				List<Connection> cons = host.getConnections();
+				assertEquals(expected, cons);
+				assertSame(cons, host.getConnections());
+			}
+		}
+	}
+}
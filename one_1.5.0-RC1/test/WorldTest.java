@@ -5,9 +5,13 @@
 package test;
 
 import input.EventQueue;
+import input.ExternalEvent;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 import core.DTNHost;
@@ -26,17 +30,22 @@ public class WorldTest extends TestCase {
 	/* for rounding errors with SimClock */
 	private static final double TIME_DELTA = 0.00001;
 	private World world;
+	private TestSettings testSettings;
 	private boolean simulateConnections = true;
 	private int worldSizeX = 100;
 	private int worldSizeY = 100;
 	private double upInterval = 0.1;
 	private List<TestDTNHost> testHosts;
 	private List<EventQueue> eQueues;
+	/** addresses of the hosts in the order they were updated */
+	private List<Integer> updateLog;
 	
 	protected void setUp() throws Exception {
 		super.setUp();
 		SimClock.reset();
-		TestSettings testSettings = new TestSettings();
+		DTNHost.reset();
+		this.updateLog = new ArrayList<Integer>();
+		testSettings = new TestSettings();
 		testSettings.setNameSpace(TestUtils.IFACE_NS);
 		testSettings.putSetting(NetworkInterface.TRANSMIT_RANGE_S, "1.0");
 		testSettings.putSetting(NetworkInterface.TRANSMIT_SPEED_S, "1");
@@ -49,11 +58,20 @@ public class WorldTest extends TestCase {
 			li.add(ni);
 			ModuleCommunicationBus comBus = new ModuleCommunicationBus();
 			
-			this.testHosts.add(new TestDTNHost(li, comBus, testSettings));
+			this.testHosts.add(new TestDTNHost(li, comBus, testSettings) {
+				public void update(boolean up) {
+					super.update(up);
+					updateLog.add(getAddress());
+				}
+			});
 		}
 		
+		this.world = createWorld();
+	}
+	
+	private World createWorld() {
 		TestScenario ts = new TestScenario();
-		this.world = new World(ts.getHosts(),ts.getWorldSizeX(), 
+		return new World(ts.getHosts(),ts.getWorldSizeX(), 
 				ts.getWorldSizeY(),ts.getUpdateInterval(), 
 				ts.getUpdateListeners(), ts.simulateConnections(), 
 				ts.getExternalEvents() );
@@ -101,6 +119,72 @@ public class WorldTest extends TestCase {
 
 	}
 	
+	public void testEventDrivenUpdates() {
+		testSettings.setNameSpace(null);
+		testSettings.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." + 
+				World.EVENT_DRIVEN_UPDATES_S, "true");
+		testSettings.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." + 
+				World.RANDOMIZE_UPDATES_S, "false");
+		eQueues.add(new AffectingEventQueue(0.05, 7, 2, 5, 2));
+		world = createWorld();
+		
+		world.update();
+		/* the affected hosts in address order and then all hosts */
+		assertEquals(3 + testHosts.size(), updateLog.size());
+		assertEquals(Arrays.asList(2, 5, 7), updateLog.subList(0, 3));
+		assertEquals(2, testHosts.get(2).nrofUpdate);
+		assertEquals(1, testHosts.get(3).nrofUpdate);
+	}
+	
+	public void testRandomizedEventDrivenUpdates() {
+		testSettings.setNameSpace(null);
+		testSettings.putSetting(World.OPTIMIZATION_SETTINGS_NS + "." + 
+				World.EVENT_DRIVEN_UPDATES_S, "true");
+		eQueues.add(new AffectingEventQueue(0.05, 1, 2, 3, 4, 5, 6, 7, 8));
+		world = createWorld();
+		
+		world.update();
+		/* affected hosts are updated in the random update order, which 
+		   is the order of the full update of the same (integer) time 
+		   shuffled once more */
+		List<Integer> expected = new ArrayList<Integer>();
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i=0; i < testHosts.size(); i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(0));
+		for (int address : order) {
+			if (address != 0 && address != 9) {
+				expected.add(address);
+			}
+		}
+		assertEquals(expected, updateLog.subList(0, expected.size()));
+	}
+	
+
+	/** Event queue with one event that affects the given hosts */
+	private class AffectingEventQueue implements EventQueue {
+		private ExternalEvent event;
+		
+		public AffectingEventQueue(double time, final int... addresses) {
+			this.event = new ExternalEvent(time) {
+				public int[] getAffectedHosts() {
+					return addresses;
+				}
+			};
+		}
+		
+		public ExternalEvent nextEvent() {
+			ExternalEvent ee = this.event;
+			this.event = null;
+			return ee;
+		}
+		
+		public double nextEventsTime() {
+			return this.event != null ? this.event.getTime() : 
+				Double.MAX_VALUE;
+		}
+	}
 
 	/** Dummy scenario for providing test values for the World */ 
 	private class TestScenario extends core.SimScenario {
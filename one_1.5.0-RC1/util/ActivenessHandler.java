@@ -111,11 +111,12 @@ public class ActivenessHandler {
 	
 	/**
 	 * Returns true if node should be active after/before offset amount of 
-	 * time from now
+	 * time from now. Synchronized because the handler is shared by the
+	 * whole node group and the hosts may be moved in parallel.
 	 * @param offset The offset 
 	 * @return true if node should be active, false if not
 	 */
-	public boolean isActive(int offset) {
+	public synchronized boolean isActive(int offset) {
 		if (this.activeTimes == null) {
 			if (this.activePeriods == null) {
 				return true; // no inactive times nor periods -> always active		
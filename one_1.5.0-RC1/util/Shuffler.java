@@ -0,0 +1,71 @@
+/* 
+ * Copyright 2010 Aalto University, ComNet
+ * Released under GPLv3. See LICENSE.txt for details. 
+ */
+package util;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shuffles lists exactly like
+ * <CODE>Collections.shuffle(list, new Random(seed))</CODE> but without
+ * creating a new random number generator for every shuffle. The swap
+ * positions drawn for the latest seed and list size are also stored, so
+ * shuffling again with the same seed and size (e.g., many times during one
+ * simulated second) doesn't need any new random numbers. Not thread safe;
+ * every thread should use its own shuffler.
+ */
+public class Shuffler {
+	private Random rng;
+	/** the swap positions for the stored seed and size (the position for
+	 * index i is in swaps[i]) */
+	private int[] swaps;
+	/** the seed of the stored swap positions */
+	private long seed;
+	/** the list size of the stored swap positions (or -1 if none) */
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public Shuffler() {
+		this.rng = new Random();
+		this.swaps = new int[0];
+		this.size = -1;
+	}
+
+	/**
+	 * Shuffles a list into the same order as
+	 * <CODE>Collections.shuffle(list, new Random(seed))</CODE> would
+	 * @param list The list to shuffle
+	 * @param seed The seed of the shuffle
+	 */
+	public <T> void shuffle(List<T> list, long seed) {
+		int n = list.size();
+		if (n != this.size || seed != this.seed) {
+			drawSwaps(n, seed);
+		}
+
+		for (int i = n - 1; i > 0; i--) {
+			int j = this.swaps[i];
+			list.set(i, list.set(j, list.get(i)));
+		}
+	}
+
+	/**
+	 * Draws the swap positions for a list size and seed the same way as
+	 * <CODE>Collections.shuffle</CODE> does
+	 */
+	private void drawSwaps(int n, long seed) {
+		if (this.swaps.length < n) {
+			this.swaps = new int[Math.max(n, this.swaps.length * 2)];
+		}
+		this.rng.setSeed(seed);
+		for (int i = n - 1; i > 0; i--) {
+			this.swaps[i] = this.rng.nextInt(i + 1);
+		}
+		this.seed = seed;
+		this.size = n;
+	}
+}